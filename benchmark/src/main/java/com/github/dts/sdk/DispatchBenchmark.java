@@ -0,0 +1,78 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.benchmark.EsDmlFixture;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * DtsDumpListener派发一条事件的成本，和注册的listener数量的关系。
+ * indexed=true用主键过滤器，走注册表的主键索引；false用普通的lambda，每条事件都要挨个判断
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int EVENT_COUNT = 1024;
+    @Param({"10", "1000", "100000"})
+    public int listenerCount;
+    @Param({"true", "false"})
+    public boolean indexed;
+    private DtsSdkClient.DtsDumpListener dumpListener;
+    private EsDmlDTO[] events;
+    private int cursor;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        ListenerRegistry registry = new ListenerRegistry();
+        for (long i = 0; i < listenerCount; i++) {
+            long id = i;
+            BiPredicate<Long, EsDmlDTO> filter = indexed ? Filters.primaryKey("job", id)
+                    : (messageId, dml) -> "job".equals(dml.getTableName()) && Long.valueOf(id).equals(dml.getData().get("id"));
+            registry.add(new BlackholeListenEs(filter, blackhole), ListenerRegistry.indexOf(filter));
+        }
+        // 不开启回看
+        dumpListener = new DtsSdkClient.DtsDumpListener(registry, new RecentEventIndex(0, 0), new TableLagTracker(), new StageLagTracker());
+        events = new EsDmlDTO[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events[i] = EsDmlFixture.dml(i % listenerCount);
+        }
+    }
+
+    @Benchmark
+    public void dispatch() {
+        int index = cursor++ & (EVENT_COUNT - 1);
+        dumpListener.onEvent((long) index, events[index]);
+    }
+
+    /**
+     * 永不结束，命中的事件交给Blackhole
+     */
+    private static class BlackholeListenEs implements ListenEs {
+        private final BiPredicate<Long, EsDmlDTO> filter;
+        private final Blackhole blackhole;
+
+        private BlackholeListenEs(BiPredicate<Long, EsDmlDTO> filter, Blackhole blackhole) {
+            this.filter = filter;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public void onEvent(Long messageId, EsDmlDTO dml) {
+            if (filter.test(messageId, dml)) {
+                blackhole.consume(dml);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.dts.sdk.benchmark;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 按服务端的格式生成事件
+ */
+public class EsDmlFixture {
+    private EsDmlFixture() {
+    }
+
+    public static String json(long id) {
+        long es = 1700000000000L + id;
+        return "{\"tableName\":\"job\",\"database\":\"recruit\",\"pkNames\":[\"id\"],\"es\":" + es + ",\"ts\":" + (es + 15) +
+                ",\"type\":\"UPDATE\",\"adapterName\":\"es7\"" +
+                ",\"old\":{\"status\":\"DRAFT\",\"update_time\":\"2023-11-14 22:13:20\"}" +
+                ",\"data\":{\"id\":" + id + ",\"name\":\"job-" + id + "\",\"status\":\"PUBLISHED\",\"corp_id\":" + (id % 97) +
+                ",\"salary_min\":15000,\"salary_max\":30000,\"update_time\":\"2023-11-14 22:13:21\"}" +
+                ",\"dependents\":[{\"name\":\"job_index\",\"effect\":true,\"esIndex\":\"cnwy_job_test_index_alias\"}" +
+                ",{\"name\":\"corp_index\",\"effect\":false,\"esIndex\":\"cnwy_corp_test_index_alias\"}]}";
+    }
+
+    /**
+     * @return SSE帧，和/dts/sdk/subscriber的输出一致
+     */
+    public static byte[] sse(int frameCount) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < frameCount; i++) {
+            builder.append("id:").append(i).append('\n')
+                    .append("event:es-dml\n")
+                    .append("data:").append(json(i)).append('\n')
+                    .append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static EsDmlDTO dml(long id) {
+        EsDmlDTO dml = new EsDmlDTO();
+        dml.setTableName("job");
+        dml.setDatabase("recruit");
+        dml.setPkNames(Collections.singletonList("id"));
+        dml.setType("UPDATE");
+        dml.setAdapterName("es7");
+        long es = 1700000000000L + id;
+        dml.setEs(es);
+        dml.setTs(es + 15);
+        Map<String, Object> old = new HashMap<>();
+        old.put("status", "DRAFT");
+        dml.setOld(old);
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("status", "PUBLISHED");
+        data.put("corp_id", id % 97);
+        dml.setData(data);
+        EsDmlDTO.Dependent dependent = new EsDmlDTO.Dependent();
+        dependent.setName("job_index");
+        dependent.setEffect(true);
+        dependent.setEsIndex("cnwy_job_test_index_alias");
+        dml.setDependents(Collections.singletonList(dependent));
+        return dml;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.dts.sdk.benchmark;
+
+import com.github.dts.sdk.Filters;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Filters的单次匹配成本，命中和未命中各一条事件
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterMatchBenchmark {
+    private final Long messageId = 1L;
+    private BiPredicate<Long, EsDmlDTO> primaryKey;
+    private BiPredicate<Long, EsDmlDTO> primaryKeys;
+    private BiPredicate<Long, EsDmlDTO> unionPrimaryKey;
+    private BiPredicate<Long, EsDmlDTO> columnState;
+    private BiPredicate<Long, EsDmlDTO> query;
+    private EsDmlDTO hit;
+    private EsDmlDTO miss;
+
+    @Setup
+    public void setup() {
+        List<Long> idList = new ArrayList<>();
+        for (long i = 0; i < 500; i++) {
+            idList.add(i);
+        }
+        primaryKey = Filters.primaryKey("job", 100L);
+        primaryKeys = Filters.primaryKey("job", idList);
+        unionPrimaryKey = Filters.unionPrimaryKey("job", new Object[]{100L, 1L});
+        columnState = Filters.primaryKey("job", 100L).where(Filters.column("status").changedTo("PUBLISHED"));
+        query = Filters.query().table("job").type("UPDATE").esIndex("cnwy_job_test_index_alias").effect()
+                .where(Filters.column("status").eq("PUBLISHED"));
+        hit = EsDmlFixture.dml(100L);
+        miss = EsDmlFixture.dml(100000L);
+        miss.setTableName("corp");
+    }
+
+    @Benchmark
+    public boolean primaryKeyHit() {
+        return primaryKey.test(messageId, hit);
+    }
+
+    @Benchmark
+    public boolean primaryKeyMiss() {
+        return primaryKey.test(messageId, miss);
+    }
+
+    @Benchmark
+    public boolean primaryKeysHit() {
+        return primaryKeys.test(messageId, hit);
+    }
+
+    @Benchmark
+    public boolean unionPrimaryKeyMiss() {
+        return unionPrimaryKey.test(messageId, hit);
+    }
+
+    @Benchmark
+    public boolean columnStateHit() {
+        return columnState.test(messageId, hit);
+    }
+
+    @Benchmark
+    public boolean queryHit() {
+        return query.test(messageId, hit);
+    }
+
+    @Benchmark
+    public boolean queryMiss() {
+        return query.test(messageId, miss);
+    }
+}
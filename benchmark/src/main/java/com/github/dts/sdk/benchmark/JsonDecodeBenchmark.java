@@ -0,0 +1,38 @@
+package com.github.dts.sdk.benchmark;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+import com.github.dts.sdk.util.JsonUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonUtil解析EsDmlDTO，jackson和fastjson对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodeBenchmark {
+    @Param({"jackson", "fastjson"})
+    public String library;
+    private JsonUtil.ObjectReader objectReader;
+    private String json;
+
+    @Setup
+    public void setup() {
+        objectReader = "jackson".equals(library) ? JsonUtil.jacksonObjectReader() : JsonUtil.fastjsonObjectReader();
+        if (objectReader == null) {
+            throw new IllegalStateException(library + " not found");
+        }
+        json = EsDmlFixture.json(123456789L);
+    }
+
+    @Benchmark
+    public EsDmlDTO decode() throws IOException {
+        return objectReader.readValue(json, EsDmlDTO.class);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.dts.sdk.client;
+
+import com.github.dts.sdk.benchmark.EsDmlFixture;
+import com.github.dts.sdk.util.JsonUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServerInstanceClient读取SSE帧：分帧、JSON解析、派发
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseReadBenchmark {
+    private static final int FRAME_COUNT = 1000;
+    private byte[] sse;
+    private ServerInstanceClient client;
+    private JsonUtil.ObjectReader objectReader;
+
+    @Setup
+    public void setup() {
+        sse = EsDmlFixture.sse(FRAME_COUNT);
+        client = new ServerInstanceClient(true, null, null, null);
+        objectReader = JsonUtil.objectReader();
+    }
+
+    /**
+     * 每次操作读完FRAME_COUNT个帧
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAME_COUNT)
+    public void read(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(sse), StandardCharsets.UTF_8));
+        try {
+            client.read(null, reader, objectReader, (messageId, data) -> blackhole.consume(data));
+        } catch (EOFException ignored) {
+            // 读完了
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DtsEsRowFutureBuilder的所有主键合成一个listener，只注册一次。
+ * 一个主键索引，一个超时任务，按主键记录是否命中，build之后全部命中才完成。
+ * 主键格式同{@link Filters#rowKey(Object[])}，联合主键传Object[]。
+ * future在释放锁之后完成，完成回调里不会持有这个listener的锁
+ */
+class DtsEsRowCompositeListener implements ListenEs {
+    private final CompletableFuture<ListenEsResponse> future = new CompletableFuture<>();
+    private final Map<String, Slot> slotMap = new HashMap<>();
+    private final List<EsDmlDTO> hitList = new ArrayList<>();
+    private final ScheduledExecutorService scheduled;
+    private final long timestamp = System.currentTimeMillis();
+    private int slotCount;
+    private int hitCount;
+    private boolean seal;
+    private ScheduledFuture<?> timeoutScheduleFuture;
+    private long timeoutDeadline = Long.MAX_VALUE;
+
+    DtsEsRowCompositeListener(ScheduledExecutorService scheduled) {
+        this.scheduled = scheduled;
+        future.whenComplete((r, t) -> cancelTimeout());
+    }
+
+    private static long deadline(long now, long timeout) {
+        return timeout > 0 && timeout < Integer.MAX_VALUE ? now + timeout : Long.MAX_VALUE;
+    }
+
+    CompletableFuture<ListenEsResponse> future() {
+        return future;
+    }
+
+    /**
+     * @return 新增的主键字符串
+     */
+    synchronized List<String> addPrimaryKey(String tableName, Iterable<?> ids, long timeout) {
+        long deadline = deadline(System.currentTimeMillis(), timeout);
+        List<String> keyList = new ArrayList<>(ids instanceof Collection ? ((Collection<?>) ids).size() : 10);
+        for (Object id : ids) {
+            String key = id instanceof Object[] ? Filters.rowKey((Object[]) id) : Objects.toString(id, null);
+            if (addSlot(key, tableName, deadline)) {
+                keyList.add(key);
+            }
+        }
+        if (deadline < timeoutDeadline) {
+            scheduleTimeout(deadline);
+        }
+        return keyList;
+    }
+
+    private boolean addSlot(String key, String tableName, long deadline) {
+        String table = tableName == null || tableName.isEmpty() ? null : tableName;
+        Slot head = slotMap.get(key);
+        for (Slot slot = head; slot != null; slot = slot.next) {
+            if (Objects.equals(slot.tableName, table)) {
+                return false;
+            }
+        }
+        slotMap.put(key, new Slot(table, deadline, head));
+        slotCount++;
+        return true;
+    }
+
+    int rowCount() {
+        return slotCount;
+    }
+
+    /**
+     * build时调用，之后不再增加主键
+     */
+    void seal() {
+        ListenEsResponse response;
+        synchronized (this) {
+            seal = true;
+            response = completeResponse();
+        }
+        if (response != null) {
+            future.complete(response);
+        }
+    }
+
+    /**
+     * @return 全部命中时的结果，调用方在锁外完成future
+     */
+    private ListenEsResponse completeResponse() {
+        return seal && hitCount >= slotCount ? new ListenEsResponse(hitList, timestamp) : null;
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public void onEvent(Long messageId, EsDmlDTO dml) {
+        if (future.isDone()) {
+            return;
+        }
+        Object[] ids = dml.getIds();
+        if (ids.length == 0) {
+            return;
+        }
+        String key = Filters.rowKey(ids);
+        ListenEsResponse response;
+        synchronized (this) {
+            if (future.isDone()) {
+                return;
+            }
+            boolean matched = false;
+            for (Slot slot = slotMap.get(key); slot != null; slot = slot.next) {
+                if (!slot.hit && (slot.tableName == null || slot.tableName.equalsIgnoreCase(dml.getTableName()))) {
+                    slot.hit = true;
+                    hitCount++;
+                    matched = true;
+                }
+            }
+            if (matched) {
+                hitList.add(dml);
+            }
+            response = completeResponse();
+        }
+        if (response != null) {
+            future.complete(response);
+        }
+    }
+
+    private void scheduleTimeout(long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            return;
+        }
+        ScheduledFuture<?> scheduledFuture = this.timeoutScheduleFuture;
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        this.timeoutDeadline = deadline;
+        long delay = Math.max(deadline - System.currentTimeMillis(), 0L);
+        this.timeoutScheduleFuture = scheduled.schedule(this::onTimeout, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimeout() {
+        if (isTimeout()) {
+            future.completeExceptionally(TimeoutCompletableFuture.TIMEOUT_EXCEPTION);
+        }
+    }
+
+    /**
+     * @return true=有主键超时，否则按最早的截止时间重新调度
+     */
+    private synchronized boolean isTimeout() {
+        if (future.isDone()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long nextDeadline = Long.MAX_VALUE;
+        for (Slot head : slotMap.values()) {
+            for (Slot slot = head; slot != null; slot = slot.next) {
+                if (slot.hit) {
+                    continue;
+                }
+                if (slot.deadline <= now) {
+                    return true;
+                }
+                nextDeadline = Math.min(nextDeadline, slot.deadline);
+            }
+        }
+        this.timeoutScheduleFuture = null;
+        this.timeoutDeadline = Long.MAX_VALUE;
+        scheduleTimeout(nextDeadline);
+        return false;
+    }
+
+    private synchronized void cancelTimeout() {
+        ScheduledFuture<?> scheduledFuture = this.timeoutScheduleFuture;
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+            this.timeoutScheduleFuture = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DtsEsRowCompositeListener{" +
+                "done=" + future.isDone() +
+                ", rowCount=" + slotCount +
+                ", hitCount=" + hitCount +
+                '}';
+    }
+
+    private static class Slot {
+        private final String tableName;
+        private final long deadline;
+        private final Slot next;
+        private boolean hit;
+
+        private Slot(String tableName, long deadline, Slot next) {
+            this.tableName = tableName;
+            this.deadline = deadline;
+            this.next = next;
+        }
+    }
+}
@@ -1,30 +1,45 @@
 package com.github.dts.sdk;
 
 import com.github.dts.sdk.util.EsDmlDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 
-public class DtsEsRowFutureBuilder {
+/**
+ * 未build的builder会占用回看索引和已注册的listener，建议用try-with-resources，
+ * 超过DtsSdkConfig#getBuilderMaxLifetimeMs()还没有build的会被自动释放并打印泄漏日志
+ */
+public class DtsEsRowFutureBuilder implements AutoCloseable {
     public static final long DEFAULT_ROW_TIMEOUT = 2000;
+    private static final Logger log = LoggerFactory.getLogger(DtsEsRowFutureBuilder.class);
     private static final int NOT_BUILD = 0;
     private static final int DONE_BUILD = 1;
+    private static final int CLOSE = 2;
     private static final AtomicIntegerFieldUpdater<DtsEsRowFutureBuilder> BUILD = AtomicIntegerFieldUpdater
             .newUpdater(DtsEsRowFutureBuilder.class, "build");
     private final BeforeBuilderListenEs listenEs;
     private final CompletableFuture<ListenEsResponse> future = new CompletableFuture<>();
     private final long rowTimeout;
+    private final long createTimestamp = System.currentTimeMillis();
+    /**
+     * 开启DtsSdkConfig#isBuilderLeakTrace()时记录创建位置
+     */
+    private final Throwable createTrace;
     private volatile int build = NOT_BUILD;
 
     public DtsEsRowFutureBuilder(DtsSdkClient client, Collection<String> tableNames, long rowTimeout) {
         Objects.requireNonNull(client, "client must not be null");
         this.listenEs = new BeforeBuilderListenEs(client, tableNames);
         this.rowTimeout = rowTimeout;
-        client.listenEs(listenEs);
+        this.createTrace = client.isBuilderLeakTrace() ? new Throwable("DtsEsRowFutureBuilder created at") : null;
+        client.addUnbuiltBuilder(this);
     }
 
     public static DtsEsRowFutureBuilder builder(DtsSdkClient client) {
@@ -51,24 +66,6 @@ public class DtsEsRowFutureBuilder {
         return new DtsEsRowFutureBuilder(client, tableNames, rowTimeout);
     }
 
-    private static ArrayList<EsDmlDTO> getHitList(List<ListenEsResponse> list) {
-        int hitListSize = 0;
-        for (ListenEsResponse response : list) {
-            List<EsDmlDTO> hitList1 = response.getHitList();
-            if (hitList1 != null) {
-                hitListSize += hitList1.size();
-            }
-        }
-        ArrayList<EsDmlDTO> result = new ArrayList<>(hitListSize);
-        for (ListenEsResponse response : list) {
-            List<EsDmlDTO> hitList1 = response.getHitList();
-            if (hitList1 != null) {
-                result.addAll(hitList1);
-            }
-        }
-        return result;
-    }
-
     public DtsEsRowFutureBuilder addPrimaryKey(Object id) {
         addPrimaryKey(null, id, rowTimeout);
         return this;
@@ -81,13 +78,8 @@ public class DtsEsRowFutureBuilder {
 
     public DtsEsRowFutureBuilder addPrimaryKey(String tableName, Object id, long timeout) {
         synchronized (listenEs) {
-            if (build == DONE_BUILD) {
-                throw new IllegalStateException("please call before build!");
-            }
-            Filters.UniquePrimaryKey filter = id instanceof Iterable ? Filters.primaryKey(tableName, (Iterable<?>) id) : Filters.primaryKey(tableName, id);
-            CompletableFuture<ListenEsResponse> future = new TimeoutCompletableFuture<>(timeout, listenEs.client.getScheduled());
-            DtsEsRowListener listener = new DtsEsRowListener(future, filter, filter.rowCount());
-            listenEs.add(listener);
+            checkNotBuild();
+            listenEs.addPrimaryKey(tableName, id instanceof Iterable ? (Iterable<?>) id : Collections.singletonList(id), timeout);
         }
         return this;
     }
@@ -104,27 +96,73 @@ public class DtsEsRowFutureBuilder {
 
     public DtsEsRowFutureBuilder addPrimaryKey(String tableName, Iterable<?> ids, long timeout) {
         synchronized (listenEs) {
-            if (build == DONE_BUILD) {
-                throw new IllegalStateException("please call before build!");
-            }
-            Filters.UniquePrimaryKey filter = Filters.primaryKey(tableName, ids);
-            CompletableFuture<ListenEsResponse> future = new TimeoutCompletableFuture<>(timeout, listenEs.client.getScheduled());
-            DtsEsRowListener listener = new DtsEsRowListener(future, filter, filter.rowCount());
-            listenEs.add(listener);
+            checkNotBuild();
+            listenEs.addPrimaryKey(tableName, ids, timeout);
         }
         return this;
     }
 
     public DtsEsRowFutureBuilder add(DtsEsRowListener listener) {
         synchronized (listenEs) {
-            if (build == DONE_BUILD) {
-                throw new IllegalStateException("please call before build!");
-            }
+            checkNotBuild();
             listenEs.add(listener);
         }
         return this;
     }
 
+    private void checkNotBuild() {
+        int build = this.build;
+        if (build == DONE_BUILD) {
+            throw new IllegalStateException("please call before build!");
+        } else if (build == CLOSE) {
+            throw new IllegalStateException("builder is closed!");
+        }
+    }
+
+    /**
+     * 没有build就释放，取消已注册的listener，build()返回的future会是CancellationException
+     */
+    @Override
+    public void close() {
+        release(null);
+    }
+
+    boolean isExpired(long now, long maxLifetimeMs) {
+        return build == NOT_BUILD && now - createTimestamp > maxLifetimeMs;
+    }
+
+    void releaseLeak(long maxLifetimeMs) {
+        if (release("DtsSdkBuilderLeak")) {
+            if (createTrace != null) {
+                log.warn("LEAK: DtsEsRowFutureBuilder.build() or close() was not called within {}ms, auto released. rowCount={}",
+                        maxLifetimeMs, listenEs.rowCount(), createTrace);
+            } else {
+                log.warn("LEAK: DtsEsRowFutureBuilder.build() or close() was not called within {}ms, auto released. rowCount={}. " +
+                                "Enable server.dts.sdk.builder-leak-trace=true to get the create location",
+                        maxLifetimeMs, listenEs.rowCount());
+            }
+        }
+    }
+
+    private boolean release(String reason) {
+        if (!BUILD.compareAndSet(this, NOT_BUILD, CLOSE)) {
+            return false;
+        }
+        synchronized (listenEs) {
+            for (CompletableFuture<ListenEsResponse> listenerFuture : listenEs.futureList()) {
+                listenerFuture.cancel(false);
+            }
+            if (listenEs.compositeListener != null) {
+                listenEs.compositeListener.future().cancel(false);
+            }
+            listenEs.listenerList.clear();
+        }
+        listenEs.done();
+        listenEs.client.removeUnbuiltBuilder(this);
+        future.completeExceptionally(new CancellationException(reason == null ? "DtsSdkBuilderClose" : reason));
+        return true;
+    }
+
     public <T> CompletableFuture<T> build(T result) {
         return build().handle((r, t) -> result);
     }
@@ -140,28 +178,43 @@ public class DtsEsRowFutureBuilder {
     public CompletableFuture<ListenEsResponse> build() {
         if (BUILD.compareAndSet(this, NOT_BUILD, DONE_BUILD)) {
             synchronized (listenEs) {
-                int size = listenEs.listenerList.size();
+                List<CompletableFuture<ListenEsResponse>> futureList = listenEs.futureList();
+                int size = futureList.size();
                 long startTimestamp = listenEs.startTimestamp == 0L ? System.currentTimeMillis() : listenEs.startTimestamp;
-                if (listenEs.client.getDumpCount() == 0 || size == 0) {
-                    future.complete(new ListenEsResponse(Collections.emptyList(), startTimestamp));
+                if (listenEs.compositeListener != null) {
+                    listenEs.compositeListener.seal();
+                }
+                CompletableFuture<ListenEsResponse> notReady = size == 0
+                        ? CompletableFuture.completedFuture(new ListenEsResponse(Collections.emptyList(), startTimestamp))
+                        : listenEs.client.notReady(() -> new ListenEsResponse(Collections.emptyList(), startTimestamp));
+                if (notReady != null) {
+                    // 没有流或者还没就绪，已注册的listener不再需要
+                    for (CompletableFuture<ListenEsResponse> listenerFuture : futureList) {
+                        listenerFuture.cancel(false);
+                    }
+                    notReady.whenComplete((r, t) -> {
+                        if (t != null) {
+                            future.completeExceptionally(t);
+                        } else {
+                            future.complete(r);
+                        }
+                    });
                 } else {
+                    // 每个listener的结果写入自己的槽位，counter归零的线程通过counter看到所有槽位
                     AtomicInteger counter = new AtomicInteger(size);
-                    List<ListenEsResponse> list = new ArrayList<>(size);
-                    for (DtsEsRowListener listener : listenEs.listenerList) {
-                        listener.future().whenComplete((listenEsResponse, throwable) -> {
+                    ListenEsResponse[] responses = new ListenEsResponse[size];
+                    for (int i = 0; i < size; i++) {
+                        int slot = i;
+                        futureList.get(i).whenComplete((listenEsResponse, throwable) -> {
                             if (future.isDone()) {
                                 return;
                             }
                             if (throwable != null) {
                                 future.completeExceptionally(throwable);
                             } else {
-                                if (listenEsResponse != null) {
-                                    list.add(listenEsResponse);
-                                }
+                                responses[slot] = listenEsResponse;
                                 if (counter.decrementAndGet() == 0) {
-                                    ArrayList<EsDmlDTO> hitList = getHitList(list);
-                                    list.clear();
-                                    future.complete(new ListenEsResponse(hitList, startTimestamp));
+                                    future.complete(new ListenEsResponse(new HitList(responses), startTimestamp));
                                 }
                             }
                         });
@@ -169,85 +222,150 @@ public class DtsEsRowFutureBuilder {
                 }
             }
             listenEs.done();
+            listenEs.client.removeUnbuiltBuilder(this);
         }
         return future;
     }
 
-    private static class BeforeBuilderListenEs implements ListenEs {
+    /**
+     * 多个listener命中结果的只读视图，不拷贝
+     */
+    private static class HitList extends AbstractList<EsDmlDTO> {
+        private final ListenEsResponse[] responses;
+        private final int size;
+
+        private HitList(ListenEsResponse[] responses) {
+            this.responses = responses;
+            int size = 0;
+            for (ListenEsResponse response : responses) {
+                List<EsDmlDTO> hitList = response == null ? null : response.getHitList();
+                if (hitList != null) {
+                    size += hitList.size();
+                }
+            }
+            this.size = size;
+        }
+
+        @Override
+        public EsDmlDTO get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            for (ListenEsResponse response : responses) {
+                List<EsDmlDTO> hitList = response == null ? null : response.getHitList();
+                if (hitList == null) {
+                    continue;
+                }
+                if (index < hitList.size()) {
+                    return hitList.get(index);
+                }
+                index -= hitList.size();
+            }
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        @Override
+        public Iterator<EsDmlDTO> iterator() {
+            return new Iterator<EsDmlDTO>() {
+                private int responseIndex;
+                private Iterator<EsDmlDTO> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext()) {
+                        if (responseIndex >= responses.length) {
+                            return false;
+                        }
+                        ListenEsResponse response = responses[responseIndex++];
+                        List<EsDmlDTO> hitList = response == null ? null : response.getHitList();
+                        current = hitList == null ? Collections.emptyIterator() : hitList.iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public EsDmlDTO next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 
+    private static class BeforeBuilderListenEs {
         private final DtsSdkClient client;
         private final Set<String> tableNames;
         private final List<DtsEsRowListener> listenerList = new ArrayList<>();
-        private final ArrayList<Event> collectList = new ArrayList<>();
+        /**
+         * addPrimaryKey的主键都合并到这一个listener里
+         */
+        private DtsEsRowCompositeListener compositeListener;
+        /**
+         * 回看序号，builder创建之后到达的事件都可以被后注册的listener命中
+         */
+        private final long lookbackSequence;
         private long startTimestamp;
-        private volatile boolean done;
+        private boolean done;
 
         private BeforeBuilderListenEs(DtsSdkClient client, Collection<String> tableNames) {
             this.client = client;
             this.tableNames = tableNames == null || tableNames.isEmpty() ? null : new HashSet<>(tableNames);
+            this.lookbackSequence = client.openLookback();
         }
 
         private void add(DtsEsRowListener listenEs) {
             if (startTimestamp == 0L) {
                 startTimestamp = System.currentTimeMillis();
             }
-            // read
-            synchronized (collectList) {
-                client.listenEs(listenEs);
-                boolean done = false;
-                for (Event event : collectList) {
-                    listenEs.onEvent(event.messageId, event.dml);
-                    if (listenEs.isDone()) {
-                        done = true;
-                        break;
-                    }
-                }
-                if (!done) {
-                    listenerList.add(listenEs);
-                }
-            }
+            client.listenEs(listenEs, lookbackSequence, tableNames);
+            listenerList.add(listenEs);
         }
 
-        @Override
-        public boolean isDone() {
-            return done;
+        private void addPrimaryKey(String tableName, Iterable<?> ids, long timeout) {
+            if (startTimestamp == 0L) {
+                startTimestamp = System.currentTimeMillis();
+            }
+            if (compositeListener == null) {
+                compositeListener = new DtsEsRowCompositeListener(client.getScheduled());
+                client.listenEs(compositeListener, ListenerRegistry.Index.primaryKey(Collections.emptyList()));
+                client.removeOnDone(compositeListener.future(), compositeListener);
+            }
+            List<String> keyList = compositeListener.addPrimaryKey(tableName, ids, timeout);
+            if (!keyList.isEmpty()) {
+                client.listenKeys(compositeListener, keyList, lookbackSequence, tableNames);
+            }
         }
 
-        private void done() {
-            // delete
-            synchronized (collectList) {
-                this.done = true;
-                collectList.clear();
-                collectList.trimToSize();
-            }
+        private int rowCount() {
+            return listenerList.size() + (compositeListener == null ? 0 : compositeListener.rowCount());
         }
 
-        @Override
-        public void onEvent(Long messageId, EsDmlDTO dml) {
-            if (done) {
-                // delete
-                synchronized (collectList) {
-                    collectList.clear();
-                    collectList.trimToSize();
-                }
-            } else {
-                // insert
-                synchronized (collectList) {
-                    if (tableNames == null || tableNames.contains(dml.getTableName())) {
-                        collectList.add(new Event(messageId, dml));
-                    }
-                }
+        private List<CompletableFuture<ListenEsResponse>> futureList() {
+            List<CompletableFuture<ListenEsResponse>> list = new ArrayList<>(listenerList.size() + 1);
+            if (compositeListener != null && compositeListener.rowCount() > 0) {
+                list.add(compositeListener.future());
             }
+            for (DtsEsRowListener listener : listenerList) {
+                list.add(listener.future());
+            }
+            return list;
         }
 
-        static class Event {
-            Long messageId;
-            EsDmlDTO dml;
-
-            Event(Long messageId, EsDmlDTO dml) {
-                this.messageId = messageId;
-                this.dml = dml;
+        private void done() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
             }
+            client.closeLookback();
         }
     }
 }
@@ -2,17 +2,23 @@ package com.github.dts.sdk;
 
 import com.github.dts.sdk.util.EsDmlDTO;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiPredicate;
 
+/**
+ * 结果在锁内生成，释放锁之后再完成future
+ */
 public class DtsEsRowListener implements ListenEs {
     private final CompletableFuture<ListenEsResponse> future;
     private final BiPredicate<Long, EsDmlDTO> rowFilter;
     private final int rowCount;
     private final List<EsDmlDTO> hitList;
     private final long timestamp = System.currentTimeMillis();
+    /**
+     * 已经生成结果，future可能还没完成
+     */
+    private boolean done;
 
     public DtsEsRowListener(CompletableFuture<ListenEsResponse> future, BiPredicate<Long, EsDmlDTO> rowFilter, int rowCount) {
         this.future = future;
@@ -25,6 +31,10 @@ public class DtsEsRowListener implements ListenEs {
         return future;
     }
 
+    public BiPredicate<Long, EsDmlDTO> rowFilter() {
+        return rowFilter;
+    }
+
     @Override
     public boolean isDone() {
         return future.isDone();
@@ -35,12 +45,51 @@ public class DtsEsRowListener implements ListenEs {
         if (future.isDone()) {
             return;
         }
-        if (rowFilter.test(messageId, dml)) {
-            hitList.add(dml);
-            if (hitList.size() >= rowCount) {
-                future.complete(new ListenEsResponse(hitList, timestamp));
+        ListenEsResponse response = null;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (rowFilter.test(messageId, dml)) {
+                hitList.add(dml);
+                if (hitList.size() >= rowCount) {
+                    done = true;
+                    response = new ListenEsResponse(hitList, timestamp);
+                }
+            }
+        }
+        if (response != null) {
+            future.complete(response);
+        }
+    }
+
+    /**
+     * 超时时用已命中的行完成，返回没有命中的主键
+     */
+    public void completePartial() {
+        if (future.isDone()) {
+            return;
+        }
+        ListenEsResponse response;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            Collection<String> missKeys = Collections.emptyList();
+            if (rowFilter instanceof Filters.PrimaryKeyFilter) {
+                Collection<String> keys = ((Filters.PrimaryKeyFilter) rowFilter).primaryKeyStrings();
+                if (keys != null) {
+                    Set<String> missKeySet = new LinkedHashSet<>(keys);
+                    for (EsDmlDTO dml : hitList) {
+                        missKeySet.remove(Filters.rowKey(dml.getIds()));
+                    }
+                    missKeys = missKeySet;
+                }
             }
+            response = new ListenEsResponse(hitList, timestamp, missKeys, true);
         }
+        future.complete(response);
     }
 
     @Override
@@ -9,51 +9,261 @@ import com.github.dts.sdk.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Supplier;
 
 public class DtsSdkClient {
     public static final long DEFAULT_ROW_TIMEOUT = 2000;
+    public static final int DEFAULT_SUBSCRIBE_BUFFER_SIZE = 256;
     private static final Logger log = LoggerFactory.getLogger(DtsSdkClient.class);
-    private final LinkedList<ListenEs> listenEsList = new LinkedList<>();
-    private final ScheduledExecutorService scheduled = Util.newScheduled(
-            1, () -> "DTS-scheduled", e -> log.warn("Scheduled error {}", e.toString(), e));
+    static final IllegalStateException NOT_READY_EXCEPTION = new IllegalStateException("DtsSdkNotReady");
+    private final ListenerRegistry listenerRegistry = new ListenerRegistry();
+    private final ScheduledExecutorService scheduled = newScheduled();
     private final List<DumpThread> dumpThreadList = Collections.synchronizedList(new LinkedList<>());
+    private final WatermarkBarrier watermarkBarrier = new WatermarkBarrier();
+    private final RecentEventIndex recentEventIndex;
+    private final RowInterestMap rowInterestMap = new RowInterestMap(this);
+    private final Set<DtsEsRowFutureBuilder> unbuiltBuilderSet = ConcurrentHashMap.newKeySet();
+    private final boolean builderLeakTrace;
+    private volatile ThreadPoolExecutor subscribeExecutor;
+    private final TableLagTracker lagTracker = new TableLagTracker();
+    private final StageLagTracker stageLagTracker = new StageLagTracker();
+    private final DtsSdkMetrics metrics = new DtsSdkMetrics();
+    private volatile TimeoutPolicy timeoutPolicy = TimeoutPolicy.fixed(DEFAULT_ROW_TIMEOUT);
+    private final CompletableFuture<DtsSdkClient> readiness = new CompletableFuture<>();
+    private final DtsSdkConfig.NotReadyPolicy notReadyPolicy;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * 关闭时执行，例：通知订阅者onComplete
+     */
+    private final Set<Runnable> closeHookSet = ConcurrentHashMap.newKeySet();
 
     public DtsSdkClient(DtsSdkConfig config, DiscoveryService discoveryService) {
-        discoveryService.registerSdkInstance();
-        ClearListener clearListener = new ClearListener(listenEsList);
+        this.notReadyPolicy = config.getNotReadyPolicy();
+        this.recentEventIndex = new RecentEventIndex(config.getLookbackMaxSize(), config.getLookbackMaxAgeMs());
+        ClearListener clearListener = new ClearListener(listenerRegistry, watermarkBarrier, recentEventIndex);
         scheduled.scheduleWithFixedDelay(clearListener, config.getClearDoneInterval(), config.getClearDoneInterval(), TimeUnit.MILLISECONDS);
+        this.builderLeakTrace = config.isBuilderLeakTrace();
+        long builderMaxLifetimeMs = config.getBuilderMaxLifetimeMs();
+        if (builderMaxLifetimeMs > 0) {
+            long delay = Math.max(Math.min(builderMaxLifetimeMs, 1000L), 10L);
+            scheduled.scheduleWithFixedDelay(new BuilderLeakDetector(unbuiltBuilderSet, builderMaxLifetimeMs), delay, delay, TimeUnit.MILLISECONDS);
+        }
+
+        long lagDecayIntervalMs = config.getLagDecayIntervalMs();
+        if (lagDecayIntervalMs > 0) {
+            scheduled.scheduleWithFixedDelay(() -> {
+                lagTracker.decay();
+                stageLagTracker.decay();
+            }, lagDecayIntervalMs, lagDecayIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (config.isAdaptiveTimeout()) {
+            this.timeoutPolicy = TimeoutPolicy.adaptive(this, config.getAdaptiveTimeoutPercentile(), config.getAdaptiveTimeoutFactor(),
+                    config.getAdaptiveTimeoutMinMs(), config.getAdaptiveTimeoutMaxMs(), config.getAdaptiveTimeoutMinSamples(), DEFAULT_ROW_TIMEOUT);
+        }
+
+        DtsDumpListener dumpListener = new DtsDumpListener(listenerRegistry, recentEventIndex, lagTracker, stageLagTracker);
+        if (config.isAsyncStartup()) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start(config, discoveryService, dumpListener);
+                } catch (Throwable e) {
+                    log.warn("DtsSdkClient async startup error {}", e.toString(), e);
+                    readiness.completeExceptionally(e);
+                }
+            }, "DTS-startup");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            start(config, discoveryService, dumpListener);
+        }
+    }
 
-        DtsDumpListener dumpListener = new DtsDumpListener(listenEsList);
+    private void start(DtsSdkConfig config, DiscoveryService discoveryService, DtsDumpListener dumpListener) {
+        discoveryService.registerSdkInstance();
+        Runnable onConnect = () -> readiness.complete(this);
+        int dumpCount = 0;
         try (ReferenceCounted<List<ServerInstanceClient>> ref = discoveryService.getServerListRef()) {
             for (ServerInstanceClient client : ref.get()) {
-                new DumpThread(client, dumpListener, config, dumpThreadList).start();
+                new DumpThread(client, dumpListener, config, dumpThreadList, watermarkBarrier, metrics, onConnect).start();
+                dumpCount++;
             }
         }
         discoveryService.addServerListener(new DiscoveryService.ServerListener() {
             @Override
             public <E extends ServerInstanceClient> void onChange(DiscoveryService.ServerChangeEvent<E> event) {
+                if (closed.get()) {
+                    return;
+                }
                 for (E client : event.insertList) {
-                    new DumpThread(client, dumpListener, config, dumpThreadList).start();
+                    new DumpThread(client, dumpListener, config, dumpThreadList, watermarkBarrier, metrics, onConnect).start();
+                }
+                for (E client : event.deleteList) {
+                    metrics.removeStream(client);
                 }
+                metrics.discoveryChange(event.insertList.size(), event.deleteList.size());
             }
         });
+        if (dumpCount == 0) {
+            // 没有服务端，没有可等的流，监听直接返回空结果
+            readiness.complete(this);
+        }
+    }
+
+    /**
+     * 第一个流连上时完成，没有发现服务端时启动结束就完成。异步启动失败时异常完成
+     */
+    public CompletableFuture<DtsSdkClient> readiness() {
+        return readiness;
+    }
+
+    public boolean isReady() {
+        return readiness.isDone() && !readiness.isCompletedExceptionally();
+    }
+
+    /**
+     * 断开所有流，停止定时任务，执行关闭回调。spring容器关闭时自动调用
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        scheduled.shutdownNow();
+        List<DumpThread> list;
+        synchronized (dumpThreadList) {
+            list = new ArrayList<>(dumpThreadList);
+        }
+        for (DumpThread dumpThread : list) {
+            dumpThread.client.closeAsync();
+        }
+        for (Runnable hook : closeHookSet) {
+            try {
+                hook.run();
+            } catch (Exception e) {
+                log.warn("close hook error {}", e.toString(), e);
+            }
+        }
+        closeHookSet.clear();
+        synchronized (this) {
+            // 关闭回调提交的出队任务在shutdown之后仍会执行完
+            if (subscribeExecutor != null) {
+                subscribeExecutor.shutdown();
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return false=已经关闭，回调不会执行
+     */
+    boolean addCloseHook(Runnable hook) {
+        closeHookSet.add(hook);
+        if (closed.get()) {
+            closeHookSet.remove(hook);
+            return false;
+        }
+        return true;
+    }
+
+    void removeCloseHook(Runnable hook) {
+        closeHookSet.remove(hook);
+    }
+
+    /**
+     * 没有流或者还没就绪时不需要注册listener
+     *
+     * @return 为空表示正常注册listener，否则直接返回这个结果
+     */
+    <T> CompletableFuture<T> notReady(Supplier<T> empty) {
+        if (!readiness.isDone()) {
+            if (notReadyPolicy == DtsSdkConfig.NotReadyPolicy.FAIL_FAST) {
+                CompletableFuture<T> future = new CompletableFuture<>();
+                future.completeExceptionally(NOT_READY_EXCEPTION);
+                return future;
+            }
+            // HOLD，正常注册，流连上后派发
+            return null;
+        }
+        if (dumpThreadList.isEmpty()) {
+            return CompletableFuture.completedFuture(empty.get());
+        }
+        return null;
+    }
+
+    private CompletableFuture<ListenEsResponse> notReadyResponse() {
+        return notReady(() -> new ListenEsResponse(Collections.emptyList(), System.currentTimeMillis()));
+    }
+
+    private static ScheduledExecutorService newScheduled() {
+        ScheduledThreadPoolExecutor scheduled = Util.newScheduled(
+                1, () -> "DTS-scheduled", e -> log.warn("Scheduled error {}", e.toString(), e));
+        // 超时任务取消后立即移出队列
+        scheduled.setRemoveOnCancelPolicy(true);
+        return scheduled;
     }
 
     public CompletableFuture<ListenEsResponse> listenEsRow(String tableName, Object id) {
         if (id instanceof Iterable) {
             Filters.UniquePrimaryKey filter = Filters.primaryKey(tableName, (Iterable<?>) id);
-            return listenEsRow(filter, filter.rowCount(), DEFAULT_ROW_TIMEOUT);
+            return listenEsRow(filter, filter.rowCount(), timeoutPolicy.timeout(tableName));
         } else {
-            return listenEsRow(Filters.primaryKey(tableName, id), 1, DEFAULT_ROW_TIMEOUT);
+            return listenEsRowCoalesce(tableName, id, timeoutPolicy.timeout(tableName));
+        }
+    }
+
+    /**
+     * 没有指定超时时间的监听用这个策略，默认固定{@link #DEFAULT_ROW_TIMEOUT}
+     */
+    public void setTimeoutPolicy(TimeoutPolicy timeoutPolicy) {
+        this.timeoutPolicy = Objects.requireNonNull(timeoutPolicy, "timeoutPolicy must not be null");
+    }
+
+    public TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    /**
+     * @param tableName 为空返回所有表的
+     * @return binlog执行时间到SDK收到的延迟(毫秒)，没有收到过这个表的事件时为空
+     */
+    public LagHistogram getLagHistogram(String tableName) {
+        return lagTracker.get(tableName);
+    }
+
+    /**
+     * @return 各阶段的延迟，单位见{@link LagStage}
+     */
+    public LagHistogram getStageLagHistogram(LagStage stage) {
+        return stageLagTracker.get(stage);
+    }
+
+    public DtsSdkMetrics getMetrics() {
+        return metrics;
+    }
+
+    void recordLag(ListenEsResponse response) {
+        if (response != null && !response.isTimeout()) {
+            stageLagTracker.recordComplete(response);
         }
     }
 
@@ -62,8 +272,34 @@ public class DtsSdkClient {
             Filters.UniquePrimaryKey filter = Filters.primaryKey(tableName, (Iterable<?>) id);
             return listenEsRow(filter, filter.rowCount(), timeout);
         } else {
-            return listenEsRow(Filters.primaryKey(tableName, id), 1, timeout);
+            return listenEsRowCoalesce(tableName, id, timeout);
+        }
+    }
+
+    /**
+     * 相同(表名, 主键)的并发监听只注册一个listener，一条事件完成所有等待者
+     */
+    private CompletableFuture<ListenEsResponse> listenEsRowCoalesce(String tableName, Object id, long timeout) {
+        CompletableFuture<ListenEsResponse> notReady = notReadyResponse();
+        if (notReady != null) {
+            return notReady;
         }
+        return rowInterestMap.listen(tableName, id, timeout);
+    }
+
+    /**
+     * 等到行数据实际写入指定的ES索引，DML没有改变这个索引时不会提前返回
+     *
+     * @param id      单个主键或主键集合
+     * @param esIndex ES索引名，为空表示写入任意索引
+     */
+    public CompletableFuture<ListenEsResponse> listenEsRowEffect(String tableName, Object id, String esIndex, long timeout) {
+        Filters.Query query = Filters.query().table(tableName).effect();
+        query = id instanceof Iterable ? query.primaryKeys((Iterable<?>) id) : query.primaryKey(id);
+        if (esIndex != null) {
+            query = query.esIndex(esIndex);
+        }
+        return listenEsRow(query, timeout);
     }
 
     public <T> CompletableFuture<T> listenEsRow(String tableName, Object id, long timeout, Supplier<T> supplier) {
@@ -96,6 +332,65 @@ public class DtsSdkClient {
                 .handle((r, t) -> supplier.get());
     }
 
+    /**
+     * 等待所有dump流都收到binlog时间(EsDmlDTO#getEs) &gt;= esTimestamp的事件，用于读己之写的屏障。
+     * 某个流一直没有事件时，会等到超时
+     *
+     * @param esTimestamp binlog执行时间
+     * @param timeout     超时毫秒
+     * @return 到达时所有流的最低水位
+     */
+    public CompletableFuture<Long> awaitWatermark(long esTimestamp, long timeout) {
+        CompletableFuture<Long> notReady = notReady(() -> Long.MIN_VALUE);
+        if (notReady != null) {
+            return notReady;
+        }
+        return watermarkBarrier.await(esTimestamp, timeout, scheduled, () -> DumpThread.lowWatermark(dumpThreadList));
+    }
+
+    public long getWatermark() {
+        return DumpThread.lowWatermark(dumpThreadList);
+    }
+
+    public EsDmlPublisher subscribe(BiPredicate<Long, EsDmlDTO> filter) {
+        return subscribe(filter, DEFAULT_SUBSCRIBE_BUFFER_SIZE, EsDmlPublisher.OverflowStrategy.DROP_OLDEST);
+    }
+
+    public EsDmlPublisher subscribe(BiPredicate<Long, EsDmlDTO> filter, int bufferSize,
+                                    EsDmlPublisher.OverflowStrategy overflowStrategy) {
+        return new EsDmlPublisher(this, filter, bufferSize, overflowStrategy, getSubscribeExecutor());
+    }
+
+    private Executor getSubscribeExecutor() {
+        if (subscribeExecutor == null) {
+            synchronized (this) {
+                if (subscribeExecutor == null) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    ThreadPoolExecutor executor = Util.newFixedThreadPool(threads, threads, 60000, "DTS-subscribe-", true, true, -1);
+                    // 关闭之后subscriber继续request时，在调用线程里出队
+                    executor.setRejectedExecutionHandler((r, e) -> r.run());
+                    if (closed.get()) {
+                        executor.shutdown();
+                    }
+                    subscribeExecutor = executor;
+                }
+            }
+        }
+        return subscribeExecutor;
+    }
+
+    /**
+     * 等待行变成指定状态，例：listenEsRowState("job", 123, 2000, Filters.column("status").eq("PUBLISHED"))
+     *
+     * @param conditions 全部满足才命中，先按主键索引筛选再判断字段
+     */
+    public CompletableFuture<ListenEsResponse> listenEsRowState(String tableName, Object id, long timeout,
+                                                                Filters.ColumnCondition... conditions) {
+        Filters.UniquePrimaryKey filter = id instanceof Iterable ? Filters.primaryKey(tableName, (Iterable<?>) id) : Filters.primaryKey(tableName, id);
+        filter = filter.where(conditions);
+        return listenEsRow(filter, filter.rowCount(), timeout);
+    }
+
     public ScheduledExecutorService getScheduled() {
         return scheduled;
     }
@@ -104,99 +399,334 @@ public class DtsSdkClient {
         return dumpThreadList.size();
     }
 
+    /**
+     * 例：listenEsRow(Filters.query().table("job").primaryKey(123).type("UPDATE"), 2000)
+     */
+    public CompletableFuture<ListenEsResponse> listenEsRow(Filters.Query query, long timeout) {
+        return listenEsRow(query, query.rowCount(), timeout);
+    }
+
     public CompletableFuture<ListenEsResponse> listenEsRow(BiPredicate<Long, EsDmlDTO> rowFilter,
                                                            int rowCount, long timeout) {
-        if (dumpThreadList.isEmpty()) {
-            return CompletableFuture.completedFuture(new ListenEsResponse(Collections.emptyList(), System.currentTimeMillis()));
-        } else {
-            CompletableFuture<ListenEsResponse> future = new TimeoutCompletableFuture<>(timeout, scheduled);
-            listenEs(new DtsEsRowListener(future, rowFilter, rowCount));
-            return future;
+        CompletableFuture<ListenEsResponse> notReady = notReadyResponse();
+        if (notReady != null) {
+            return notReady;
+        }
+        CompletableFuture<ListenEsResponse> future = new TimeoutCompletableFuture<>(timeout, scheduled);
+        listenEs(new DtsEsRowListener(future, rowFilter, rowCount));
+        return future;
+    }
+
+    /**
+     * 超时不抛TimeoutException，返回已命中的行和没有命中的主键({@link ListenEsResponse#getMissKeys()})，
+     * 调用方只需要对没命中的主键回查数据库
+     */
+    public CompletableFuture<ListenEsResponse> listenEsRowsPartial(String tableName, Iterable<?> ids, long timeout) {
+        Filters.UniquePrimaryKey filter = Filters.primaryKey(tableName, ids);
+        return listenEsRowPartial(filter, filter.rowCount(), timeout);
+    }
+
+    /**
+     * 超时返回部分结果，见{@link #listenEsRowsPartial(String, Iterable, long)}
+     */
+    public CompletableFuture<ListenEsResponse> listenEsRowPartial(BiPredicate<Long, EsDmlDTO> rowFilter,
+                                                                  int rowCount, long timeout) {
+        CompletableFuture<ListenEsResponse> notReady = notReadyResponse();
+        if (notReady != null) {
+            return notReady;
+        }
+        CompletableFuture<ListenEsResponse> future = new CompletableFuture<>();
+        DtsEsRowListener listener = new DtsEsRowListener(future, rowFilter, rowCount);
+        if (timeout > 0 && timeout < Integer.MAX_VALUE) {
+            ScheduledFuture<?> timeoutScheduleFuture = scheduled.schedule(listener::completePartial, timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((r, t) -> timeoutScheduleFuture.cancel(false));
         }
+        listenEs(listener);
+        return future;
     }
 
     public void listenEs(ListenEs listenEs) {
-        synchronized (listenEsList) {
-            listenEsList.add(listenEs);
+        listenEs(listenEs, ListenerRegistry.indexOf(listenEs));
+    }
+
+    /**
+     * @param index 不为空时，只会派发索引属性命中的事件
+     */
+    void listenEs(ListenEs listenEs, ListenerRegistry.Index index) {
+        synchronized (listenerRegistry) {
+            listenerRegistry.add(listenEs, index);
+        }
+        if (listenEs instanceof DtsEsRowListener) {
+            removeOnDone(((DtsEsRowListener) listenEs).future(), listenEs);
+        }
+    }
+
+    /**
+     * 立即注销listener，不用等定时清理
+     */
+    public void removeListenEs(ListenEs listenEs) {
+        synchronized (listenerRegistry) {
+            listenerRegistry.remove(listenEs);
+        }
+    }
+
+    /**
+     * future完成、超时或取消时注销listener
+     */
+    void removeOnDone(CompletableFuture<ListenEsResponse> future, ListenEs listenEs) {
+        future.whenComplete((r, t) -> {
+            removeListenEs(listenEs);
+            recordLag(r);
+            metrics.listenDone(r, t);
+        });
+    }
+
+    public int getListenerCount() {
+        return listenerRegistry.size();
+    }
+
+    boolean isBuilderLeakTrace() {
+        return builderLeakTrace;
+    }
+
+    void addUnbuiltBuilder(DtsEsRowFutureBuilder builder) {
+        unbuiltBuilderSet.add(builder);
+    }
+
+    void removeUnbuiltBuilder(DtsEsRowFutureBuilder builder) {
+        unbuiltBuilderSet.remove(builder);
+    }
+
+    public int getUnbuiltBuilderCount() {
+        return unbuiltBuilderSet.size();
+    }
+
+    /**
+     * 开始收集回看事件
+     *
+     * @return 回看序号，只回看这之后到达的事件
+     */
+    long openLookback() {
+        synchronized (listenerRegistry) {
+            return recentEventIndex.open();
+        }
+    }
+
+    void closeLookback() {
+        synchronized (listenerRegistry) {
+            recentEventIndex.close();
+        }
+    }
+
+    /**
+     * 注册listener，并补发lookbackSequence之后已经到达的事件。
+     * 注册和派发在同一把锁下取快照，每条事件只会被补发或派发其中一次
+     */
+    void listenEs(DtsEsRowListener listener, long lookbackSequence, Set<String> tableNames) {
+        List<RecentEventIndex.Entry> lookbackList;
+        synchronized (listenerRegistry) {
+            listenerRegistry.add(listener, ListenerRegistry.indexOf(listener));
+            lookbackList = recentEventIndex.lookup(listener.rowFilter(), lookbackSequence, tableNames);
+        }
+        removeOnDone(listener.future(), listener);
+        for (RecentEventIndex.Entry entry : lookbackList) {
+            if (listener.isDone()) {
+                break;
+            }
+            listener.onEvent(entry.messageId, entry.dml);
         }
     }
 
-    private static class DumpThread extends Thread {
+    /**
+     * 给已注册的listener追加主键，并补发lookbackSequence之后已经到达，主键在keys里的事件。
+     * listener需要可以容忍重复事件
+     */
+    void listenKeys(ListenEs listener, Collection<String> keys, long lookbackSequence, Set<String> tableNames) {
+        List<RecentEventIndex.Entry> lookbackList;
+        synchronized (listenerRegistry) {
+            listenerRegistry.addKeys(listener, keys);
+            lookbackList = recentEventIndex.lookup(keys, lookbackSequence, tableNames);
+        }
+        for (RecentEventIndex.Entry entry : lookbackList) {
+            if (listener.isDone()) {
+                break;
+            }
+            listener.onEvent(entry.messageId, entry.dml);
+        }
+    }
+
+    private static class DumpThread extends Thread implements ServerInstanceClient.DumpListener {
         private final List<DumpThread> dumpThreadList;
         private final ServerInstanceClient client;
         private final DtsDumpListener dumpListener;
         private final DtsSdkConfig config;
+        private final WatermarkBarrier watermarkBarrier;
+        private final DtsSdkMetrics metrics;
+        private final DtsSdkMetrics.StreamMetrics streamMetrics;
+        private final Runnable onConnect;
+        /**
+         * 这个流收到的最大binlog时间，单调递增
+         */
+        private volatile long watermark = Long.MIN_VALUE;
 
         private DumpThread(ServerInstanceClient client,
                            DtsDumpListener dumpListener,
                            DtsSdkConfig config,
-                           List<DumpThread> dumpThreadList) {
+                           List<DumpThread> dumpThreadList,
+                           WatermarkBarrier watermarkBarrier,
+                           DtsSdkMetrics metrics,
+                           Runnable onConnect) {
             super("DTS-dump-" + client.getServerInstance().getIp() + "_" + client.getServerInstance().getPort());
             this.dumpThreadList = dumpThreadList;
             this.client = client;
             this.dumpListener = dumpListener;
             this.config = config;
+            this.watermarkBarrier = watermarkBarrier;
+            this.metrics = metrics;
+            this.streamMetrics = metrics.stream(client);
+            this.onConnect = onConnect;
+        }
+
+        private static long lowWatermark(List<DumpThread> dumpThreadList) {
+            long low = Long.MAX_VALUE;
+            synchronized (dumpThreadList) {
+                for (DumpThread dumpThread : dumpThreadList) {
+                    low = Math.min(low, dumpThread.watermark);
+                }
+            }
+            return low == Long.MAX_VALUE ? Long.MIN_VALUE : low;
+        }
+
+        @Override
+        public void onEvent(Long messageId, Object data) {
+            Long es = null;
+            if (data instanceof EsDmlDTO) {
+                EsDmlDTO dml = (EsDmlDTO) data;
+                es = dml.getEs();
+                long receiveNanoTime = dml.getReceiveNanoTime();
+                streamMetrics.event(receiveNanoTime == 0 ? -1 : dml.getDecodeNanoTime() - receiveNanoTime);
+            }
+            long dispatchStart = System.nanoTime();
+            dumpListener.onEvent(messageId, data);
+            metrics.dispatch(System.nanoTime() - dispatchStart);
+            // 派发完再前进，等待者醒来时listener已经处理过这条事件
+            if (es != null && es > watermark) {
+                watermark = es;
+                watermarkBarrier.advance(es, () -> lowWatermark(dumpThreadList));
+            }
         }
 
         @Override
         public void run() {
             dumpThreadList.add(this);
             try {
-                client.dump(dumpListener, config.getRequestRetrySleep(), config.getRequestMaxRetry());
+                client.dump(this, config.getRequestRetrySleep(), config.getRequestMaxRetry());
             } catch (Throwable e) {
                 log.error("DumpThread error exit {} {} {}", getName(), e.toString(), e);
                 throw e;
             } finally {
                 dumpThreadList.remove(this);
+                // 最慢的流可能刚好是这个，退出后重新计算最低水位
+                watermarkBarrier.advance(Long.MAX_VALUE, () -> lowWatermark(dumpThreadList));
             }
         }
+
+        @Override
+        public void onReconnect() {
+            streamMetrics.reconnect();
+        }
+
+        @Override
+        public void onConnect() {
+            onConnect.run();
+        }
     }
 
     private static class ClearListener implements Runnable {
-        private final LinkedList<ListenEs> listenEsList;
+        private final ListenerRegistry listenerRegistry;
+        private final WatermarkBarrier watermarkBarrier;
+        private final RecentEventIndex recentEventIndex;
 
-        public ClearListener(LinkedList<ListenEs> listenEsList) {
-            this.listenEsList = listenEsList;
+        public ClearListener(ListenerRegistry listenerRegistry, WatermarkBarrier watermarkBarrier, RecentEventIndex recentEventIndex) {
+            this.listenerRegistry = listenerRegistry;
+            this.watermarkBarrier = watermarkBarrier;
+            this.recentEventIndex = recentEventIndex;
         }
 
         @Override
         public void run() {
-            if (listenEsList.isEmpty()) {
+            watermarkBarrier.removeDone();
+            if (listenerRegistry.isEmpty() && !recentEventIndex.isOpen()) {
                 return;
             }
-            synchronized (listenEsList) {
-                listenEsList.removeIf(ListenEs::isDone);
+            synchronized (listenerRegistry) {
+                listenerRegistry.removeDone();
+                recentEventIndex.evict(System.currentTimeMillis());
             }
         }
     }
 
-    private static class DtsDumpListener implements ServerInstanceClient.DumpListener {
-        private final LinkedList<ListenEs> listenEsList;
+    private static class BuilderLeakDetector implements Runnable {
+        private final Set<DtsEsRowFutureBuilder> unbuiltBuilderSet;
+        private final long maxLifetimeMs;
 
-        public DtsDumpListener(LinkedList<ListenEs> listenEsList) {
-            this.listenEsList = listenEsList;
+        private BuilderLeakDetector(Set<DtsEsRowFutureBuilder> unbuiltBuilderSet, long maxLifetimeMs) {
+            this.unbuiltBuilderSet = unbuiltBuilderSet;
+            this.maxLifetimeMs = maxLifetimeMs;
         }
 
         @Override
-        public void onEvent(Long messageId, Object data) {
-            if (data instanceof EsDmlDTO) {
-                EsDmlDTO dml = (EsDmlDTO) data;
-                if (!listenEsList.isEmpty()) {
-                    for (ListenEs listenEs : listenEsList()) {
-                        if (!listenEs.isDone()) {
-                            listenEs.onEvent(messageId, dml);
-                        }
-                    }
+        public void run() {
+            if (unbuiltBuilderSet.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (DtsEsRowFutureBuilder builder : unbuiltBuilderSet) {
+                if (builder.isExpired(now, maxLifetimeMs)) {
+                    builder.releaseLeak(maxLifetimeMs);
                 }
             }
         }
+    }
 
-        private ListenEs[] listenEsList() {
-            while (true) {
-                try {
-                    return listenEsList.toArray(new ListenEs[listenEsList.size()]);
-                } catch (Exception e) {
+    static class DtsDumpListener implements ServerInstanceClient.DumpListener {
+        private final ListenerRegistry listenerRegistry;
+        private final RecentEventIndex recentEventIndex;
+        private final TableLagTracker lagTracker;
+        private final StageLagTracker stageLagTracker;
 
+        public DtsDumpListener(ListenerRegistry listenerRegistry, RecentEventIndex recentEventIndex,
+                               TableLagTracker lagTracker, StageLagTracker stageLagTracker) {
+            this.listenerRegistry = listenerRegistry;
+            this.recentEventIndex = recentEventIndex;
+            this.lagTracker = lagTracker;
+            this.stageLagTracker = stageLagTracker;
+        }
+
+        @Override
+        public void onEvent(Long messageId, Object data) {
+            if (data instanceof EsDmlDTO) {
+                EsDmlDTO dml = (EsDmlDTO) data;
+                Long es = dml.getEs();
+                if (es != null) {
+                    lagTracker.record(dml.getTableName(), Math.max(System.currentTimeMillis() - es, 0));
+                }
+                if (listenerRegistry.isEmpty() && !recentEventIndex.isOpen()) {
+                    stageLagTracker.recordDispatch(dml);
+                    return;
+                }
+                String key = Filters.rowKey(dml.getIds());
+                ListenEs[] listenEsArray;
+                synchronized (listenerRegistry) {
+                    recentEventIndex.add(messageId, dml, System.currentTimeMillis());
+                    listenEsArray = listenerRegistry.select(dml, key);
+                }
+                dml.markDispatch(System.nanoTime());
+                stageLagTracker.recordDispatch(dml);
+                for (ListenEs listenEs : listenEsArray) {
+                    if (!listenEs.isDone()) {
+                        listenEs.onEvent(messageId, dml);
+                    }
                 }
             }
         }
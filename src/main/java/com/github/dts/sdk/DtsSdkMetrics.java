@@ -0,0 +1,208 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.client.ServerInstanceClient;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * SDK运行指标，只做LongAdder累加，不依赖具体的监控库。
+ * 导出见com.github.dts.sdk.conf.DtsSdkMeterBinder
+ */
+public class DtsSdkMetrics {
+    private final ConcurrentHashMap<String, StreamMetrics> streamMap = new ConcurrentHashMap<>();
+    private final List<Consumer<StreamMetrics>> streamListenerList = new CopyOnWriteArrayList<>();
+    private final List<Consumer<StreamMetrics>> streamRemoveListenerList = new CopyOnWriteArrayList<>();
+    private final LongAdder dispatchCount = new LongAdder();
+    private final LongAdder dispatchNanos = new LongAdder();
+    private final LongAdder listenComplete = new LongAdder();
+    private final LongAdder listenTimeout = new LongAdder();
+    private final LongAdder listenCancel = new LongAdder();
+    private final LongAdder listenError = new LongAdder();
+    private final LongAdder discoveryChange = new LongAdder();
+    private final LongAdder discoveryInsert = new LongAdder();
+    private final LongAdder discoveryDelete = new LongAdder();
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    private static String server(ServerInstanceClient client) {
+        return client.getServerInstance().getIp() + ":" + client.getServerInstance().getPort();
+    }
+
+    StreamMetrics stream(ServerInstanceClient client) {
+        String server = server(client);
+        StreamMetrics stream = streamMap.get(server);
+        if (stream != null) {
+            return stream;
+        }
+        StreamMetrics newStream = new StreamMetrics(server);
+        stream = streamMap.putIfAbsent(server, newStream);
+        if (stream == null) {
+            stream = newStream;
+            for (Consumer<StreamMetrics> listener : streamListenerList) {
+                listener.accept(newStream);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * 已有的和之后新连接的流都会回调
+     */
+    public void addStreamListener(Consumer<StreamMetrics> listener) {
+        streamListenerList.add(listener);
+        for (StreamMetrics stream : streamMap.values()) {
+            listener.accept(stream);
+        }
+    }
+
+    /**
+     * 服务发现删除了服务端，不再统计这个流
+     */
+    void removeStream(ServerInstanceClient client) {
+        StreamMetrics stream = streamMap.remove(server(client));
+        if (stream != null) {
+            for (Consumer<StreamMetrics> listener : streamRemoveListenerList) {
+                listener.accept(stream);
+            }
+        }
+    }
+
+    /**
+     * 流被删除时回调，用来注销导出的指标
+     */
+    public void addStreamRemoveListener(Consumer<StreamMetrics> listener) {
+        streamRemoveListenerList.add(listener);
+    }
+
+    public Collection<StreamMetrics> getStreams() {
+        return streamMap.values();
+    }
+
+    void dispatch(long nanos) {
+        dispatchCount.increment();
+        dispatchNanos.add(nanos);
+    }
+
+    /**
+     * 监听结束，按结果分类计数
+     */
+    void listenDone(ListenEsResponse response, Throwable throwable) {
+        if (throwable == null) {
+            if (response != null && response.isTimeout()) {
+                listenTimeout.increment();
+            } else {
+                listenComplete.increment();
+            }
+            return;
+        }
+        Throwable cause = unwrap(throwable);
+        if (cause == TimeoutCompletableFuture.TIMEOUT_EXCEPTION) {
+            listenTimeout.increment();
+        } else if (cause instanceof CancellationException) {
+            listenCancel.increment();
+        } else {
+            listenError.increment();
+        }
+    }
+
+    void discoveryChange(int insert, int delete) {
+        discoveryChange.increment();
+        discoveryInsert.add(insert);
+        discoveryDelete.add(delete);
+    }
+
+    public long getDispatchCount() {
+        return dispatchCount.sum();
+    }
+
+    public long getDispatchNanos() {
+        return dispatchNanos.sum();
+    }
+
+    public long getListenComplete() {
+        return listenComplete.sum();
+    }
+
+    public long getListenTimeout() {
+        return listenTimeout.sum();
+    }
+
+    public long getListenCancel() {
+        return listenCancel.sum();
+    }
+
+    public long getListenError() {
+        return listenError.sum();
+    }
+
+    public long getDiscoveryChange() {
+        return discoveryChange.sum();
+    }
+
+    public long getDiscoveryInsert() {
+        return discoveryInsert.sum();
+    }
+
+    public long getDiscoveryDelete() {
+        return discoveryDelete.sum();
+    }
+
+    /**
+     * 一个DTS服务端连接的指标
+     */
+    public static class StreamMetrics {
+        private final String server;
+        private final LongAdder eventCount = new LongAdder();
+        private final LongAdder decodeCount = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder reconnectCount = new LongAdder();
+
+        private StreamMetrics(String server) {
+            this.server = server;
+        }
+
+        void event(long decodeNanos) {
+            eventCount.increment();
+            if (decodeNanos >= 0) {
+                this.decodeCount.increment();
+                this.decodeNanos.add(decodeNanos);
+            }
+        }
+
+        void reconnect() {
+            reconnectCount.increment();
+        }
+
+        /**
+         * @return ip:port
+         */
+        public String getServer() {
+            return server;
+        }
+
+        public long getEventCount() {
+            return eventCount.sum();
+        }
+
+        public long getDecodeCount() {
+            return decodeCount.sum();
+        }
+
+        public long getDecodeNanos() {
+            return decodeNanos.sum();
+        }
+
+        public long getReconnectCount() {
+            return reconnectCount.sum();
+        }
+    }
+}
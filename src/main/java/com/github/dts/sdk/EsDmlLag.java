@@ -0,0 +1,97 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+/**
+ * 一条命中事件的各阶段耗时，没有记录的阶段返回-1
+ */
+public class EsDmlLag {
+    private final EsDmlDTO dml;
+    private final long completeTimestamp;
+    private final long completeNanoTime;
+
+    public EsDmlLag(EsDmlDTO dml, long completeTimestamp, long completeNanoTime) {
+        this.dml = dml;
+        this.completeTimestamp = completeTimestamp;
+        this.completeNanoTime = completeNanoTime;
+    }
+
+    static long nanoToMicros(long begin, long end) {
+        return begin == 0 || end == 0 ? -1 : (end - begin) / 1000;
+    }
+
+    static long binlogToDts(EsDmlDTO dml) {
+        Long es = dml.getEs();
+        Long ts = dml.getTs();
+        return es == null || ts == null ? -1 : ts - es;
+    }
+
+    static long dtsToReceive(EsDmlDTO dml) {
+        Long ts = dml.getTs();
+        long receiveTimestamp = dml.getReceiveTimestamp();
+        return ts == null || receiveTimestamp == 0 ? -1 : receiveTimestamp - ts;
+    }
+
+    static long endToEnd(EsDmlDTO dml, long completeTimestamp) {
+        Long es = dml.getEs();
+        return es == null ? -1 : completeTimestamp - es;
+    }
+
+    public EsDmlDTO getDml() {
+        return dml;
+    }
+
+    /**
+     * @see LagStage#BINLOG_TO_DTS
+     */
+    public long getBinlogToDts() {
+        return binlogToDts(dml);
+    }
+
+    /**
+     * @see LagStage#DTS_TO_RECEIVE
+     */
+    public long getDtsToReceive() {
+        return dtsToReceive(dml);
+    }
+
+    /**
+     * @see LagStage#DECODE
+     */
+    public long getDecodeMicros() {
+        return nanoToMicros(dml.getReceiveNanoTime(), dml.getDecodeNanoTime());
+    }
+
+    /**
+     * @see LagStage#DISPATCH
+     */
+    public long getDispatchMicros() {
+        return nanoToMicros(dml.getDecodeNanoTime(), dml.getDispatchNanoTime());
+    }
+
+    /**
+     * @see LagStage#COMPLETE
+     */
+    public long getCompleteMicros() {
+        return nanoToMicros(dml.getDispatchNanoTime(), completeNanoTime);
+    }
+
+    /**
+     * @see LagStage#END_TO_END
+     */
+    public long getEndToEnd() {
+        return endToEnd(dml, completeTimestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "EsDmlLag{" +
+                "binlogToDts=" + getBinlogToDts() + "ms" +
+                ", dtsToReceive=" + getDtsToReceive() + "ms" +
+                ", decode=" + getDecodeMicros() + "us" +
+                ", dispatch=" + getDispatchMicros() + "us" +
+                ", complete=" + getCompleteMicros() + "us" +
+                ", endToEnd=" + getEndToEnd() + "ms" +
+                '}';
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * 持续订阅，dump线程只负责入队，按照subscriber的request数量在executor里出队。
+ * 每个subscriber独享一个有界队列，队列满时按照{@link OverflowStrategy}处理。
+ * DtsSdkClient关闭时，队列里剩下的事件出队后通知onComplete
+ */
+public class EsDmlPublisher implements Publisher<EsDmlDTO> {
+    private static final Logger log = LoggerFactory.getLogger(EsDmlPublisher.class);
+    private final DtsSdkClient client;
+    private final BiPredicate<Long, EsDmlDTO> filter;
+    private final int bufferSize;
+    private final OverflowStrategy overflowStrategy;
+    private final Executor executor;
+
+    public EsDmlPublisher(DtsSdkClient client, BiPredicate<Long, EsDmlDTO> filter,
+                          int bufferSize, OverflowStrategy overflowStrategy, Executor executor) {
+        this.client = Objects.requireNonNull(client, "client must not be null");
+        this.filter = filter;
+        this.bufferSize = Math.max(bufferSize, 1);
+        this.overflowStrategy = Objects.requireNonNull(overflowStrategy, "overflowStrategy must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super EsDmlDTO> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber must not be null");
+        EsDmlSubscription subscription = new EsDmlSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        client.listenEs(subscription, ListenerRegistry.indexOf(filter));
+        if (!client.addCloseHook(subscription.closeHook)) {
+            subscription.complete();
+        }
+    }
+
+    public enum OverflowStrategy {
+        /**
+         * 丢弃队列里最早的事件
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃新到的事件
+         */
+        DROP_LATEST,
+        /**
+         * 结束订阅，通知onError
+         */
+        ERROR
+    }
+
+    private class EsDmlSubscription implements Subscription, ListenEs, Runnable {
+        private final Subscriber<? super EsDmlDTO> subscriber;
+        private final ArrayDeque<EsDmlDTO> queue = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong dropCount = new AtomicLong();
+        private final Runnable closeHook = this::complete;
+        private volatile boolean cancelled;
+        private volatile boolean terminated;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        private EsDmlSubscription(Subscriber<? super EsDmlDTO> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || terminated;
+        }
+
+        @Override
+        public void onEvent(Long messageId, EsDmlDTO dml) {
+            if (isDone() || error != null) {
+                return;
+            }
+            if (filter != null && !filter.test(messageId, dml)) {
+                return;
+            }
+            synchronized (queue) {
+                if (queue.size() >= bufferSize) {
+                    switch (overflowStrategy) {
+                        case DROP_OLDEST: {
+                            queue.poll();
+                            queue.offer(dml);
+                            dropCount.incrementAndGet();
+                            break;
+                        }
+                        case DROP_LATEST: {
+                            dropCount.incrementAndGet();
+                            break;
+                        }
+                        case ERROR:
+                        default: {
+                            queue.clear();
+                            error = new IllegalStateException("DtsSdkSubscribeOverflow bufferSize=" + bufferSize);
+                            break;
+                        }
+                    }
+                } else {
+                    queue.offer(dml);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("request must be positive, but was " + n);
+            } else {
+                long r;
+                long u;
+                do {
+                    r = requested.get();
+                    u = r + n;
+                    if (u < 0) {
+                        u = Long.MAX_VALUE;
+                    }
+                } while (!requested.compareAndSet(r, u));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (queue) {
+                queue.clear();
+            }
+            client.removeListenEs(this);
+            client.removeCloseHook(closeHook);
+        }
+
+        /**
+         * DtsSdkClient关闭，不会再有新事件
+         */
+        private void complete() {
+            completed = true;
+            drain();
+        }
+
+        private void terminate() {
+            terminated = true;
+            client.removeListenEs(this);
+            client.removeCloseHook(closeHook);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                while (!isDone()) {
+                    Throwable error = this.error;
+                    if (error != null) {
+                        terminate();
+                        long dropCount = this.dropCount.get();
+                        if (dropCount > 0) {
+                            log.warn("subscribe terminate {}, dropCount = {}", error.toString(), dropCount);
+                        }
+                        subscriber.onError(error);
+                        break;
+                    }
+                    boolean completed = this.completed;
+                    EsDmlDTO dml = null;
+                    if (requested.get() != 0L) {
+                        synchronized (queue) {
+                            dml = queue.poll();
+                        }
+                    }
+                    if (dml == null) {
+                        if (completed && isEmpty()) {
+                            terminate();
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(dml);
+                    } catch (Throwable t) {
+                        cancel();
+                        log.warn("subscribe onNext error {}", t.toString(), t);
+                        break;
+                    }
+                    if (requested.get() != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private boolean isEmpty() {
+            synchronized (queue) {
+                return queue.isEmpty();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "EsDmlSubscription{" +
+                    "filter=" + filter +
+                    ", requested=" + requested +
+                    ", bufferSize=" + bufferSize +
+                    ", overflowStrategy=" + overflowStrategy +
+                    ", dropCount=" + dropCount +
+                    '}';
+        }
+    }
+}
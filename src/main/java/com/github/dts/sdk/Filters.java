@@ -23,13 +23,68 @@ public class Filters {
         return new UnionPrimaryKey(tableName, ids);
     }
 
-    public static class UniquePrimaryKey implements BiPredicate<Long, EsDmlDTO> {
+    public static Column column(String columnName) {
+        return new Column(columnName);
+    }
+
+    /**
+     * 组合条件，例：query().table("job").type("UPDATE").where(column("status").eq("PUBLISHED"))。
+     * 注册时按区分度最高的条件建索引，多个listener共用同一份索引
+     */
+    public static Query query() {
+        return Query.EMPTY;
+    }
+
+    private static ColumnCondition[] concat(ColumnCondition[] conditions, ColumnCondition[] add) {
+        ColumnCondition[] result = Arrays.copyOf(conditions, conditions.length + add.length);
+        System.arraycopy(add, 0, result, conditions.length, add.length);
+        return result;
+    }
+
+    private static boolean testConditions(ColumnCondition[] conditions, Long messageId, EsDmlDTO dml) {
+        for (ColumnCondition condition : conditions) {
+            if (!condition.test(messageId, dml)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 事件的主键字符串，单主键是id，联合主键用-连接
+     */
+    static String rowKey(Object[] ids) {
+        if (ids.length == 1) {
+            return Objects.toString(ids[0], null);
+        }
+        return UnionPrimaryKey.join(ids);
+    }
+
+    /**
+     * 按主键过滤，可以用主键做索引
+     */
+    public interface PrimaryKeyFilter extends BiPredicate<Long, EsDmlDTO> {
+        /**
+         * @return 与{@link Filters#rowKey(Object[])}格式相同的主键字符串
+         */
+        Collection<String> primaryKeyStrings();
+    }
+
+    public static class UniquePrimaryKey implements PrimaryKeyFilter {
         private final String tableName;
         private final Set<String> primaryKeyStringSet;
+        private final ColumnCondition[] conditions;
 
         public UniquePrimaryKey(String tableName, Object id) {
             this.tableName = tableName;
             this.primaryKeyStringSet = Collections.singleton(Objects.toString(id, null));
+            this.conditions = ColumnCondition.EMPTY;
+        }
+
+        private UniquePrimaryKey(String tableName, Set<String> primaryKeyStringSet, ColumnCondition[] conditions) {
+            this.tableName = tableName;
+            this.primaryKeyStringSet = primaryKeyStringSet;
+            this.conditions = conditions;
         }
 
         public UniquePrimaryKey(String tableName, Iterable<?> ids) {
@@ -44,12 +99,28 @@ public class Filters {
                 primaryKeyStringSet.add(Objects.toString(id, null));
             }
             this.primaryKeyStringSet = primaryKeyStringSet;
+            this.conditions = ColumnCondition.EMPTY;
+        }
+
+        /**
+         * 主键命中后，再判断字段条件。例：primaryKey("job", 123).where(column("status").eq("PUBLISHED"))
+         *
+         * @param conditions 全部满足才命中
+         * @return 新的过滤器
+         */
+        public UniquePrimaryKey where(ColumnCondition... conditions) {
+            return new UniquePrimaryKey(tableName, primaryKeyStringSet, concat(this.conditions, conditions));
         }
 
         public int rowCount() {
             return primaryKeyStringSet.size();
         }
 
+        @Override
+        public Collection<String> primaryKeyStrings() {
+            return primaryKeyStringSet;
+        }
+
         @Override
         public boolean test(Long messageId, EsDmlDTO dml) {
             if (tableName != null && !dml.getTableName().equalsIgnoreCase(tableName)) {
@@ -60,7 +131,7 @@ public class Filters {
                 return false;
             }
             String rowIdString = Objects.toString(ids[0], null);
-            return primaryKeyStringSet.contains(rowIdString);
+            return primaryKeyStringSet.contains(rowIdString) && testConditions(conditions, messageId, dml);
         }
 
         @Override
@@ -68,19 +139,29 @@ public class Filters {
             return "UniquePrimaryKeyTester{" +
                     "tableName='" + tableName + '\'' +
                     ", id=" + primaryKeyStringSet +
+                    (conditions.length == 0 ? "" : ", where=" + Arrays.toString(conditions)) +
                     '}';
         }
     }
 
-    public static class UnionPrimaryKey implements BiPredicate<Long, EsDmlDTO> {
+    public static class UnionPrimaryKey implements PrimaryKeyFilter {
         private final String tableName;
         private final Set<String> primaryKeyStringSet;
         private final int unionCount;
+        private final ColumnCondition[] conditions;
 
         public UnionPrimaryKey(String tableName, Object[] id) {
             this.tableName = tableName;
             this.primaryKeyStringSet = Collections.singleton(join(id));
             this.unionCount = id.length;
+            this.conditions = ColumnCondition.EMPTY;
+        }
+
+        private UnionPrimaryKey(String tableName, Set<String> primaryKeyStringSet, int unionCount, ColumnCondition[] conditions) {
+            this.tableName = tableName;
+            this.primaryKeyStringSet = primaryKeyStringSet;
+            this.unionCount = unionCount;
+            this.conditions = conditions;
         }
 
         public UnionPrimaryKey(String tableName, Iterable<Object[]> ids) {
@@ -100,6 +181,11 @@ public class Filters {
             }
             this.primaryKeyStringSet = primaryKeyStringSet;
             this.unionCount = unionCount;
+            this.conditions = ColumnCondition.EMPTY;
+        }
+
+        public UnionPrimaryKey where(ColumnCondition... conditions) {
+            return new UnionPrimaryKey(tableName, primaryKeyStringSet, unionCount, concat(this.conditions, conditions));
         }
 
         private static String join(Object[] objects) {
@@ -114,6 +200,11 @@ public class Filters {
             return primaryKeyStringSet.size();
         }
 
+        @Override
+        public Collection<String> primaryKeyStrings() {
+            return primaryKeyStringSet;
+        }
+
         @Override
         public boolean test(Long messageId, EsDmlDTO dml) {
             if (!dml.getTableName().equalsIgnoreCase(tableName)) {
@@ -124,7 +215,7 @@ public class Filters {
                 return false;
             }
             String rowIdString = join(ids);
-            return primaryKeyStringSet.contains(rowIdString);
+            return primaryKeyStringSet.contains(rowIdString) && testConditions(conditions, messageId, dml);
         }
 
         @Override
@@ -132,6 +223,294 @@ public class Filters {
             return "UnionPrimaryKeyTester{" +
                     "tableName='" + tableName + '\'' +
                     ", id=" + primaryKeyStringSet +
+                    (conditions.length == 0 ? "" : ", where=" + Arrays.toString(conditions)) +
+                    '}';
+        }
+    }
+
+    public static class Column {
+        private final String columnName;
+
+        public Column(String columnName) {
+            this.columnName = Objects.requireNonNull(columnName, "columnName must not be null");
+        }
+
+        /**
+         * 变更后的值等于value
+         */
+        public ColumnCondition eq(Object value) {
+            return new ColumnCondition(ColumnCondition.Type.EQ, columnName, Collections.singletonList(value));
+        }
+
+        /**
+         * 变更后的值在values中
+         */
+        public ColumnCondition in(Object... values) {
+            return new ColumnCondition(ColumnCondition.Type.EQ, columnName, Arrays.asList(values));
+        }
+
+        public ColumnCondition in(Iterable<?> values) {
+            return new ColumnCondition(ColumnCondition.Type.EQ, columnName, values);
+        }
+
+        /**
+         * 这次变更修改了字段，并且变更前的值等于value
+         */
+        public ColumnCondition changedFrom(Object value) {
+            return new ColumnCondition(ColumnCondition.Type.CHANGED_FROM, columnName, Collections.singletonList(value));
+        }
+
+        /**
+         * 这次变更修改了字段，并且变更后的值等于value
+         */
+        public ColumnCondition changedTo(Object value) {
+            return new ColumnCondition(ColumnCondition.Type.CHANGED_TO, columnName, Collections.singletonList(value));
+        }
+
+        /**
+         * 这次变更修改了字段
+         */
+        public ColumnCondition changed() {
+            return new ColumnCondition(ColumnCondition.Type.CHANGED, columnName, Collections.emptyList());
+        }
+    }
+
+    /**
+     * 字段条件，判断EsDmlDTO#getData()和EsDmlDTO#getOld()。
+     * 值统一转成字符串比较，期望值在创建时就转好
+     */
+    public static class ColumnCondition implements BiPredicate<Long, EsDmlDTO> {
+        static final ColumnCondition[] EMPTY = new ColumnCondition[0];
+        private final Type type;
+        private final String columnName;
+        private final String value;
+        private final Set<String> valueSet;
+
+        ColumnCondition(Type type, String columnName, Iterable<?> values) {
+            this.type = type;
+            this.columnName = columnName;
+            Set<String> valueSet = new HashSet<>();
+            for (Object value : values) {
+                valueSet.add(Objects.toString(value, null));
+            }
+            // 大部分只有一个值，不用查hash
+            this.value = valueSet.size() == 1 ? valueSet.iterator().next() : null;
+            this.valueSet = valueSet.size() == 1 ? null : valueSet;
+        }
+
+        private boolean match(Object columnValue) {
+            String string = Objects.toString(columnValue, null);
+            return valueSet == null ? Objects.equals(value, string) : valueSet.contains(string);
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        @Override
+        public boolean test(Long messageId, EsDmlDTO dml) {
+            Map<String, Object> data = dml.getData();
+            Map<String, Object> old = dml.getOld();
+            switch (type) {
+                case EQ: {
+                    return data != null && data.containsKey(columnName) && match(data.get(columnName));
+                }
+                case CHANGED_FROM: {
+                    return old != null && old.containsKey(columnName) && match(old.get(columnName));
+                }
+                case CHANGED_TO: {
+                    return old != null && old.containsKey(columnName)
+                            && data != null && match(data.get(columnName));
+                }
+                case CHANGED: {
+                    return old != null && old.containsKey(columnName);
+                }
+                default: {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return columnName + " " + type + " " + (valueSet == null ? value : valueSet);
+        }
+
+        enum Type {
+            EQ,
+            CHANGED_FROM,
+            CHANGED_TO,
+            CHANGED
+        }
+    }
+
+    /**
+     * 组合条件，各条件之间是且的关系，同一个条件的多个值是或的关系。
+     * 不可变，每次追加条件都返回新的对象
+     */
+    public static class Query implements PrimaryKeyFilter {
+        static final Query EMPTY = new Query(null, null, ColumnCondition.EMPTY, null, null, null, false);
+        private final String tableName;
+        private final Set<String> primaryKeyStringSet;
+        private final ColumnCondition[] conditions;
+        private final Set<String> types;
+        private final Set<String> adapterNames;
+        private final Set<String> esIndexes;
+        private final boolean effect;
+
+        private Query(String tableName, Set<String> primaryKeyStringSet, ColumnCondition[] conditions,
+                      Set<String> types, Set<String> adapterNames, Set<String> esIndexes, boolean effect) {
+            this.tableName = tableName;
+            this.primaryKeyStringSet = primaryKeyStringSet;
+            this.conditions = conditions;
+            this.types = types;
+            this.adapterNames = adapterNames;
+            this.esIndexes = esIndexes;
+            this.effect = effect;
+        }
+
+        private static Set<String> toSet(Set<String> set, String[] values) {
+            for (String value : values) {
+                set.add(Objects.requireNonNull(value, "value must not be null"));
+            }
+            return set.isEmpty() ? null : set;
+        }
+
+        private static boolean contains(Set<String> set, String value) {
+            return set == null || (value != null && set.contains(value));
+        }
+
+        public Query table(String tableName) {
+            return new Query(tableName == null || tableName.isEmpty() ? null : tableName,
+                    primaryKeyStringSet, conditions, types, adapterNames, esIndexes, effect);
+        }
+
+        /**
+         * @param id 单主键用id，联合主键用数组
+         */
+        public Query primaryKey(Object id) {
+            return primaryKeys(Collections.singletonList(id));
+        }
+
+        public Query primaryKeys(Iterable<?> ids) {
+            Set<String> set = new HashSet<>();
+            for (Object id : ids) {
+                set.add(id instanceof Object[] ? rowKey((Object[]) id) : Objects.toString(id, null));
+            }
+            return new Query(tableName, set, conditions, types, adapterNames, esIndexes, effect);
+        }
+
+        public Query where(ColumnCondition... conditions) {
+            return new Query(tableName, primaryKeyStringSet, concat(this.conditions, conditions), types, adapterNames, esIndexes, effect);
+        }
+
+        /**
+         * @param types INSERT, UPDATE, DELETE，不区分大小写
+         */
+        public Query type(String... types) {
+            return new Query(tableName, primaryKeyStringSet, conditions,
+                    toSet(new TreeSet<>(String.CASE_INSENSITIVE_ORDER), types), adapterNames, esIndexes, effect);
+        }
+
+        public Query adapterName(String... adapterNames) {
+            return new Query(tableName, primaryKeyStringSet, conditions, types,
+                    toSet(new HashSet<>(), adapterNames), esIndexes, effect);
+        }
+
+        /**
+         * 事件影响了其中任意一个ES索引
+         */
+        public Query esIndex(String... esIndexes) {
+            return new Query(tableName, primaryKeyStringSet, conditions, types, adapterNames,
+                    toSet(new HashSet<>(), esIndexes), effect);
+        }
+
+        /**
+         * 只在实际写入ES时命中，和{@link #esIndex(String...)}一起用时，需要写入其中一个指定的索引。
+         * 用来等到ES里能查到数据，避免DML到了但ES没有变化就提前返回
+         */
+        public Query effect() {
+            return new Query(tableName, primaryKeyStringSet, conditions, types, adapterNames, esIndexes, true);
+        }
+
+        public boolean isEffect() {
+            return effect;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public Set<String> getTypes() {
+            return types;
+        }
+
+        public Set<String> getAdapterNames() {
+            return adapterNames;
+        }
+
+        public Set<String> getEsIndexes() {
+            return esIndexes;
+        }
+
+        public int rowCount() {
+            return primaryKeyStringSet == null ? 1 : primaryKeyStringSet.size();
+        }
+
+        /**
+         * @return 没有主键条件时为空
+         */
+        @Override
+        public Collection<String> primaryKeyStrings() {
+            return primaryKeyStringSet;
+        }
+
+        private boolean testEsIndex(EsDmlDTO dml) {
+            List<EsDmlDTO.Dependent> dependents = dml.getDependents();
+            if (dependents == null) {
+                return false;
+            }
+            for (EsDmlDTO.Dependent dependent : dependents) {
+                String esIndex = dependent.getEsIndex();
+                if (esIndex != null && esIndexes.contains(esIndex)
+                        && (!effect || Boolean.TRUE.equals(dependent.getEffect()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean test(Long messageId, EsDmlDTO dml) {
+            if (tableName != null && !tableName.equalsIgnoreCase(dml.getTableName())) {
+                return false;
+            }
+            if (primaryKeyStringSet != null && !primaryKeyStringSet.contains(rowKey(dml.getIds()))) {
+                return false;
+            }
+            if (!contains(types, dml.getType()) || !contains(adapterNames, dml.getAdapterName())) {
+                return false;
+            }
+            if (esIndexes != null) {
+                if (!testEsIndex(dml)) {
+                    return false;
+                }
+            } else if (effect && !dml.isEffect()) {
+                return false;
+            }
+            return testConditions(conditions, messageId, dml);
+        }
+
+        @Override
+        public String toString() {
+            return "Query{" +
+                    (tableName == null ? "" : "tableName='" + tableName + "', ") +
+                    (primaryKeyStringSet == null ? "" : "id=" + primaryKeyStringSet + ", ") +
+                    (types == null ? "" : "type=" + types + ", ") +
+                    (adapterNames == null ? "" : "adapterName=" + adapterNames + ", ") +
+                    (esIndexes == null ? "" : "esIndex=" + esIndexes + ", ") +
+                    (effect ? "effect, " : "") +
+                    "where=" + Arrays.toString(conditions) +
                     '}';
         }
     }
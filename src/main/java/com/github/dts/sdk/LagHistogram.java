@@ -0,0 +1,98 @@
+package com.github.dts.sdk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图，按2的幂分段，每段再分4个桶，误差在25%以内。
+ * 定时衰减(计数减半)，百分位更偏向最近的延迟
+ */
+public class LagHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * 最大记录2^40毫秒，再大的值计入最后一个桶
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    /**
+     * @return 桶的上界
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKET_COUNT;
+        long lower = (long) (SUB_BUCKET_COUNT + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(index(value));
+    }
+
+    /**
+     * @return 衰减后的样本数
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 0~1，例：0.99
+     * @return 所在桶的上界，没有样本时返回-1
+     */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0D), 1D));
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += counts.get(i);
+            if (sum >= rank && sum > 0) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * 计数减半
+     */
+    public void decay() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts.get(i) != 0) {
+                counts.getAndUpdate(i, c -> c >> 1);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LagHistogram{" +
+                "count=" + count() +
+                ", p50=" + percentile(0.5) +
+                ", p99=" + percentile(0.99) +
+                '}';
+    }
+}
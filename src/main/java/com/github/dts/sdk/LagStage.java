@@ -0,0 +1,31 @@
+package com.github.dts.sdk;
+
+/**
+ * 同步延迟的各个阶段，用来区分慢在MySQL、DTS还是SDK
+ */
+public enum LagStage {
+    /**
+     * binlog执行(es)到DTS处理(ts)，毫秒
+     */
+    BINLOG_TO_DTS,
+    /**
+     * DTS处理(ts)到SDK收到SSE帧，毫秒，包含网络和两端时钟偏差
+     */
+    DTS_TO_RECEIVE,
+    /**
+     * SDK收到SSE帧到JSON解析完成，微秒
+     */
+    DECODE,
+    /**
+     * JSON解析完成到开始派发给listener，微秒
+     */
+    DISPATCH,
+    /**
+     * 开始派发到监听的future完成，微秒
+     */
+    COMPLETE,
+    /**
+     * binlog执行(es)到监听的future完成，毫秒
+     */
+    END_TO_END
+}
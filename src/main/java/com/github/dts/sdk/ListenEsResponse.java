@@ -2,31 +2,98 @@ package com.github.dts.sdk;
 
 import com.github.dts.sdk.util.EsDmlDTO;
 
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 public class ListenEsResponse {
     private final long timestamp = System.currentTimeMillis();
+    private final long completeNanoTime = System.nanoTime();
     private final long startTimestamp;
     private final List<EsDmlDTO> hitList;
+    private final Collection<String> missKeys;
+    private final boolean timeout;
 
     public ListenEsResponse(List<EsDmlDTO> hitList, long startTimestamp) {
+        this(hitList, startTimestamp, Collections.emptyList(), false);
+    }
+
+    /**
+     * @param missKeys 超时时还没命中的主键
+     * @param timeout  是否超时返回的部分结果
+     */
+    public ListenEsResponse(List<EsDmlDTO> hitList, long startTimestamp, Collection<String> missKeys, boolean timeout) {
         this.hitList = hitList;
         this.startTimestamp = startTimestamp;
+        this.missKeys = missKeys;
+        this.timeout = timeout;
     }
 
     public List<EsDmlDTO> getHitList() {
         return hitList;
     }
 
+    /**
+     * @return 没有命中的主键，格式同{@link Filters#rowKey(Object[])}。过滤条件不是按主键时为空
+     */
+    public Collection<String> getMissKeys() {
+        return missKeys;
+    }
+
+    /**
+     * @return true=超时，hitList只有部分结果
+     */
+    public boolean isTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return 每条命中事件的各阶段耗时，和hitList一一对应
+     */
+    public List<EsDmlLag> getLagList() {
+        return new AbstractList<EsDmlLag>() {
+            @Override
+            public EsDmlLag get(int index) {
+                return getLag(hitList.get(index));
+            }
+
+            @Override
+            public int size() {
+                return hitList.size();
+            }
+        };
+    }
+
+    public EsDmlLag getLag(EsDmlDTO dml) {
+        return new EsDmlLag(dml, timestamp, completeNanoTime);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    long getCompleteNanoTime() {
+        return completeNanoTime;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * @return 从开始监听到返回的毫秒数
+     */
     public long getCost() {
-        return startTimestamp - timestamp;
+        return timestamp - startTimestamp;
     }
 
     @Override
     public String toString() {
         return "ListenEsResponse{" +
                 "cost=" + getCost() + "ms" +
+                (timeout ? ", timeout, missKeys=" + missKeys : "") +
                 ", hitList=" + hitList +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,312 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * listener注册表，按属性建hash索引。
+ * 每个listener按过滤条件里区分度最高的一个属性(主键 &gt; 表名 &gt; ES索引 &gt; adapter &gt; 操作类型)挂到对应索引上，
+ * 只等实际写入ES的listener按写入的索引分区，没有写入这个索引的事件不会派发过去，
+ * 事件只取出自己属性值对应的listener，其余条件由listener自己判断；没有可索引条件的listener收到全部事件。
+ * 派发成本和可能命中的listener数量相关，与注册总数无关。
+ * 非线程安全，调用方需要持有注册表的锁
+ */
+class ListenerRegistry {
+    private static final ListenEs[] EMPTY = new ListenEs[0];
+    private final Map<String, List<ListenEs>> primaryKeyMap = new HashMap<>();
+    private final Map<String, List<ListenEs>> tableMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, List<ListenEs>> esIndexMap = new HashMap<>();
+    private final Map<String, List<ListenEs>> effectEsIndexMap = new HashMap<>();
+    private final Map<String, List<ListenEs>> adapterMap = new HashMap<>();
+    private final Map<String, List<ListenEs>> typeMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<ListenEs, Registration> registrationMap = new IdentityHashMap<>();
+    private final List<ListenEs> otherList = new ArrayList<>();
+    private volatile int size;
+
+    static Index indexOf(ListenEs listenEs) {
+        if (listenEs instanceof DtsEsRowListener) {
+            return indexOf(((DtsEsRowListener) listenEs).rowFilter());
+        }
+        return null;
+    }
+
+    /**
+     * 从过滤器里选出区分度最高的属性
+     *
+     * @return 为空表示不能索引
+     */
+    static Index indexOf(BiPredicate<Long, EsDmlDTO> rowFilter) {
+        if (rowFilter instanceof Filters.Query) {
+            Filters.Query query = (Filters.Query) rowFilter;
+            if (query.primaryKeyStrings() != null) {
+                return new Index(Attribute.PRIMARY_KEY, query.primaryKeyStrings());
+            } else if (query.getTableName() != null) {
+                return new Index(Attribute.TABLE, Collections.singletonList(query.getTableName()));
+            } else if (query.getEsIndexes() != null) {
+                return new Index(query.isEffect() ? Attribute.EFFECT_ES_INDEX : Attribute.ES_INDEX, query.getEsIndexes());
+            } else if (query.getAdapterNames() != null) {
+                return new Index(Attribute.ADAPTER, query.getAdapterNames());
+            } else if (query.getTypes() != null) {
+                return new Index(Attribute.TYPE, query.getTypes());
+            }
+            return null;
+        }
+        if (rowFilter instanceof Filters.PrimaryKeyFilter) {
+            Collection<String> keys = ((Filters.PrimaryKeyFilter) rowFilter).primaryKeyStrings();
+            return keys == null ? null : new Index(Attribute.PRIMARY_KEY, keys);
+        }
+        return null;
+    }
+
+    private static void add(Map<String, List<ListenEs>> map, Collection<String> values, ListenEs listenEs) {
+        for (String value : values) {
+            map.computeIfAbsent(value, k -> new ArrayList<>(1)).add(listenEs);
+        }
+    }
+
+    private static int size(List<ListenEs> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    private static int copy(List<ListenEs> list, ListenEs[] result, int offset) {
+        if (list == null) {
+            return offset;
+        }
+        for (ListenEs listenEs : list) {
+            result[offset++] = listenEs;
+        }
+        return offset;
+    }
+
+    private static boolean removeIdentity(List<ListenEs> list, ListenEs listenEs) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == listenEs) {
+                list.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void remove(Map<String, List<ListenEs>> map, Collection<String> values, ListenEs listenEs) {
+        for (String value : values) {
+            List<ListenEs> list = map.get(value);
+            if (list != null && removeIdentity(list, listenEs) && list.isEmpty()) {
+                map.remove(value);
+            }
+        }
+    }
+
+    private static void removeDone(Map<String, List<ListenEs>> map) {
+        if (map.isEmpty()) {
+            return;
+        }
+        map.values().removeIf(list -> {
+            list.removeIf(ListenEs::isDone);
+            return list.isEmpty();
+        });
+    }
+
+    private Map<String, List<ListenEs>> map(Attribute attribute) {
+        switch (attribute) {
+            case PRIMARY_KEY:
+                return primaryKeyMap;
+            case TABLE:
+                return tableMap;
+            case ES_INDEX:
+                return esIndexMap;
+            case EFFECT_ES_INDEX:
+                return effectEsIndexMap;
+            case ADAPTER:
+                return adapterMap;
+            case TYPE:
+            default:
+                return typeMap;
+        }
+    }
+
+    void add(ListenEs listenEs, Index index) {
+        if (index == null) {
+            otherList.add(listenEs);
+        } else {
+            registrationMap.put(listenEs, new Registration(index));
+            add(map(index.attribute), index.values, listenEs);
+        }
+        size = otherList.size() + registrationMap.size();
+    }
+
+    /**
+     * 立即移除，不用等定时清理
+     *
+     * @return 是否注册过
+     */
+    boolean remove(ListenEs listenEs) {
+        Registration registration = registrationMap.remove(listenEs);
+        boolean remove;
+        if (registration == null) {
+            remove = removeIdentity(otherList, listenEs);
+        } else {
+            remove(map(registration.index.attribute), registration.index.values, listenEs);
+            if (registration.addKeyList != null) {
+                remove(primaryKeyMap, registration.addKeyList, listenEs);
+            }
+            remove = true;
+        }
+        size = otherList.size() + registrationMap.size();
+        return remove;
+    }
+
+    /**
+     * 给已经按主键注册的listener追加主键
+     */
+    void addKeys(ListenEs listenEs, Collection<String> keys) {
+        Registration registration = registrationMap.get(listenEs);
+        if (registration == null) {
+            return;
+        }
+        if (registration.addKeyList == null) {
+            registration.addKeyList = new ArrayList<>(keys);
+        } else {
+            registration.addKeyList.addAll(keys);
+        }
+        add(primaryKeyMap, keys, listenEs);
+    }
+
+    /**
+     * @param dml 事件
+     * @param key 事件的主键，{@link Filters#rowKey(Object[])}
+     * @return 可能命中这条事件的listener
+     */
+    ListenEs[] select(EsDmlDTO dml, String key) {
+        if (size == 0) {
+            return EMPTY;
+        }
+        List<ListenEs> keyList = primaryKeyMap.isEmpty() ? null : primaryKeyMap.get(key);
+        String tableName = dml.getTableName();
+        List<ListenEs> tableList = tableMap.isEmpty() || tableName == null ? null : tableMap.get(tableName);
+        String adapterName = dml.getAdapterName();
+        List<ListenEs> adapterList = adapterMap.isEmpty() || adapterName == null ? null : adapterMap.get(adapterName);
+        String type = dml.getType();
+        List<ListenEs> typeList = typeMap.isEmpty() || type == null ? null : typeMap.get(type);
+        Collection<ListenEs> esIndexList = esIndexMap.isEmpty() ? null : selectEsIndex(dml, esIndexMap, false);
+        Collection<ListenEs> effectList = effectEsIndexMap.isEmpty() ? null : selectEsIndex(dml, effectEsIndexMap, true);
+
+        int total = size(keyList) + size(tableList) + size(adapterList) + size(typeList)
+                + (esIndexList == null ? 0 : esIndexList.size())
+                + (effectList == null ? 0 : effectList.size()) + otherList.size();
+        if (total == 0) {
+            return EMPTY;
+        }
+        ListenEs[] result = new ListenEs[total];
+        int offset = copy(keyList, result, 0);
+        offset = copy(tableList, result, offset);
+        offset = copy(adapterList, result, offset);
+        offset = copy(typeList, result, offset);
+        if (esIndexList != null) {
+            for (ListenEs listenEs : esIndexList) {
+                result[offset++] = listenEs;
+            }
+        }
+        if (effectList != null) {
+            for (ListenEs listenEs : effectList) {
+                result[offset++] = listenEs;
+            }
+        }
+        copy(otherList, result, offset);
+        return result;
+    }
+
+    /**
+     * @param effectOnly 只看实际写入的索引
+     */
+    private static Collection<ListenEs> selectEsIndex(EsDmlDTO dml, Map<String, List<ListenEs>> map, boolean effectOnly) {
+        List<EsDmlDTO.Dependent> dependents = dml.getDependents();
+        if (dependents == null || dependents.isEmpty()) {
+            return null;
+        }
+        List<ListenEs> first = null;
+        Set<ListenEs> merge = null;
+        for (EsDmlDTO.Dependent dependent : dependents) {
+            if (effectOnly && !Boolean.TRUE.equals(dependent.getEffect())) {
+                continue;
+            }
+            String esIndex = dependent.getEsIndex();
+            List<ListenEs> list = esIndex == null ? null : map.get(esIndex);
+            if (list == null || list == first) {
+                continue;
+            }
+            if (first == null) {
+                first = list;
+            } else {
+                // 一条事件影响多个索引时，同一个listener可能挂在多个索引下，需要去重
+                if (merge == null) {
+                    merge = Collections.newSetFromMap(new IdentityHashMap<>());
+                    merge.addAll(first);
+                }
+                merge.addAll(list);
+            }
+        }
+        return merge != null ? merge : first;
+    }
+
+    void removeDone() {
+        if (size == 0) {
+            return;
+        }
+        otherList.removeIf(ListenEs::isDone);
+        if (registrationMap.keySet().removeIf(ListenEs::isDone)) {
+            removeDone(primaryKeyMap);
+            removeDone(tableMap);
+            removeDone(esIndexMap);
+            removeDone(effectEsIndexMap);
+            removeDone(adapterMap);
+            removeDone(typeMap);
+        }
+        size = otherList.size() + registrationMap.size();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    enum Attribute {
+        PRIMARY_KEY,
+        TABLE,
+        ES_INDEX,
+        EFFECT_ES_INDEX,
+        ADAPTER,
+        TYPE
+    }
+
+    static class Index {
+        final Attribute attribute;
+        final Collection<String> values;
+
+        Index(Attribute attribute, Collection<String> values) {
+            this.attribute = attribute;
+            this.values = values;
+        }
+
+        static Index primaryKey(Collection<String> keys) {
+            return new Index(Attribute.PRIMARY_KEY, keys);
+        }
+    }
+
+    private static class Registration {
+        private final Index index;
+        /**
+         * addKeys追加的主键，移除时用
+         */
+        private List<String> addKeyList;
+
+        private Registration(Index index) {
+            this.index = index;
+        }
+    }
+}
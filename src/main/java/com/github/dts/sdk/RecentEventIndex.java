@@ -0,0 +1,181 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * 最近事件的回看索引，按表名+主键存放，有数量和时间上限。
+ * 新注册的listener可以O(1)找到注册前已经到达的事件，代替每个builder各自缓存一份事件。
+ * 只有存在未build的builder时才会收集事件。
+ * 非线程安全，调用方需要持有DtsSdkClient#listenerRegistry的锁
+ */
+class RecentEventIndex {
+    private final int maxSize;
+    private final long maxAgeMs;
+    private final ArrayDeque<Entry> entryQueue = new ArrayDeque<>();
+    /**
+     * 表名 -> 主键 -> 事件，不同表的相同主键互不影响
+     */
+    private final Map<String, Map<String, List<Entry>>> tableKeyMap = new HashMap<>();
+    private long sequence;
+    private volatile int openCount;
+
+    RecentEventIndex(int maxSize, long maxAgeMs) {
+        this.maxSize = Math.max(maxSize, 1);
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * 开始收集
+     *
+     * @return 当前序号，回看时只看之后的事件
+     */
+    long open() {
+        openCount++;
+        return sequence;
+    }
+
+    void close() {
+        if (openCount > 0 && --openCount == 0) {
+            clear();
+        }
+    }
+
+    boolean isOpen() {
+        return openCount > 0;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    void add(Long messageId, EsDmlDTO dml, long now) {
+        long sequence = ++this.sequence;
+        if (openCount == 0) {
+            return;
+        }
+        String key = Filters.rowKey(dml.getIds());
+        Entry entry = new Entry(sequence, now, key, messageId, dml);
+        entryQueue.addLast(entry);
+        tableKeyMap.computeIfAbsent(dml.getTableName(), k -> new HashMap<>())
+                .computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry);
+        while (entryQueue.size() > maxSize) {
+            remove(entryQueue.pollFirst());
+        }
+        evict(now);
+    }
+
+    void evict(long now) {
+        Entry first;
+        while ((first = entryQueue.peekFirst()) != null && now - first.receiveTimestamp > maxAgeMs) {
+            remove(entryQueue.pollFirst());
+        }
+    }
+
+    /**
+     * 找出afterSequence之后到达，可能被rowFilter命中的事件
+     */
+    List<Entry> lookup(BiPredicate<Long, EsDmlDTO> rowFilter, long afterSequence, Set<String> tableNames) {
+        Collection<String> keys = rowFilter instanceof Filters.PrimaryKeyFilter ? ((Filters.PrimaryKeyFilter) rowFilter).primaryKeyStrings() : null;
+        return lookup(keys, afterSequence, tableNames);
+    }
+
+    /**
+     * 找出afterSequence之后到达，表在tableNames里、主键在keys里的事件
+     *
+     * @param keys       为空时返回全部
+     * @param tableNames 为空时不限制表
+     */
+    List<Entry> lookup(Collection<String> keys, long afterSequence, Set<String> tableNames) {
+        if (entryQueue.isEmpty() || sequence <= afterSequence) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<>();
+        if (keys != null) {
+            if (tableNames == null) {
+                for (Map<String, List<Entry>> keyMap : tableKeyMap.values()) {
+                    lookup(keyMap, keys, afterSequence, result);
+                }
+            } else {
+                for (String tableName : tableNames) {
+                    Map<String, List<Entry>> keyMap = tableKeyMap.get(tableName);
+                    if (keyMap != null) {
+                        lookup(keyMap, keys, afterSequence, result);
+                    }
+                }
+            }
+            if (result.size() > 1) {
+                result.sort(Comparator.comparingLong(e -> e.sequence));
+            }
+        } else {
+            for (Entry entry : entryQueue) {
+                if (entry.sequence > afterSequence && isTable(entry, tableNames)) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void lookup(Map<String, List<Entry>> keyMap, Collection<String> keys, long afterSequence, List<Entry> result) {
+        for (String key : keys) {
+            List<Entry> list = keyMap.get(key);
+            if (list != null) {
+                for (Entry entry : list) {
+                    if (entry.sequence > afterSequence) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    int size() {
+        return entryQueue.size();
+    }
+
+    private static boolean isTable(Entry entry, Set<String> tableNames) {
+        return tableNames == null || tableNames.contains(entry.dml.getTableName());
+    }
+
+    private void remove(Entry entry) {
+        String tableName = entry.dml.getTableName();
+        Map<String, List<Entry>> keyMap = tableKeyMap.get(tableName);
+        if (keyMap == null) {
+            return;
+        }
+        List<Entry> list = keyMap.get(entry.key);
+        if (list != null) {
+            list.remove(entry);
+            if (list.isEmpty()) {
+                keyMap.remove(entry.key);
+                if (keyMap.isEmpty()) {
+                    tableKeyMap.remove(tableName);
+                }
+            }
+        }
+    }
+
+    private void clear() {
+        entryQueue.clear();
+        tableKeyMap.clear();
+    }
+
+    static class Entry {
+        final long sequence;
+        final long receiveTimestamp;
+        final String key;
+        final Long messageId;
+        final EsDmlDTO dml;
+
+        Entry(long sequence, long receiveTimestamp, String key, Long messageId, EsDmlDTO dml) {
+            this.sequence = sequence;
+            this.receiveTimestamp = receiveTimestamp;
+            this.key = key;
+            this.messageId = messageId;
+            this.dml = dml;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相同(表名, 主键)的listenEsRow合并成一个listener，命中后一起完成。
+ * 等待者超时或取消时移除，没有等待者时listener结束并立即注销
+ */
+class RowInterestMap {
+    private final ConcurrentHashMap<String, RowInterest> interestMap = new ConcurrentHashMap<>();
+    private final DtsSdkClient client;
+
+    RowInterestMap(DtsSdkClient client) {
+        this.client = client;
+    }
+
+    CompletableFuture<ListenEsResponse> listen(String tableName, Object id, long timeout) {
+        String table = tableName == null || tableName.isEmpty() ? null : tableName;
+        String primaryKey = Objects.toString(id, null);
+        String key = (table == null ? "" : table.toLowerCase(Locale.ROOT)) + ":" + primaryKey;
+        Waiter waiter = new Waiter(new TimeoutCompletableFuture<>(timeout, client.getScheduled()));
+        RowInterest interest;
+        while (true) {
+            interest = interestMap.get(key);
+            if (interest == null) {
+                RowInterest newInterest = new RowInterest(key, table, primaryKey);
+                newInterest.addWaiter(waiter);
+                interest = interestMap.putIfAbsent(key, newInterest);
+                if (interest == null) {
+                    interest = newInterest;
+                    client.listenEs(newInterest, ListenerRegistry.Index.primaryKey(Collections.singletonList(primaryKey)));
+                    break;
+                }
+            }
+            if (interest.addWaiter(waiter)) {
+                break;
+            }
+            // 已经结束的还没来得及移除
+            interestMap.remove(key, interest);
+        }
+        RowInterest joinInterest = interest;
+        waiter.future.whenComplete((r, t) -> {
+            joinInterest.removeWaiter(waiter);
+            client.getMetrics().listenDone(r, t);
+        });
+        return waiter.future;
+    }
+
+    int size() {
+        return interestMap.size();
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<ListenEsResponse> future;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Waiter(CompletableFuture<ListenEsResponse> future) {
+            this.future = future;
+        }
+    }
+
+    private class RowInterest implements ListenEs {
+        private final String key;
+        private final String tableName;
+        private final String primaryKey;
+        private final List<Waiter> waiterList = new ArrayList<>(1);
+        private volatile boolean done;
+
+        private RowInterest(String key, String tableName, String primaryKey) {
+            this.key = key;
+            this.tableName = tableName;
+            this.primaryKey = primaryKey;
+        }
+
+        private synchronized boolean addWaiter(Waiter waiter) {
+            if (done) {
+                return false;
+            }
+            waiterList.add(waiter);
+            return true;
+        }
+
+        private void removeWaiter(Waiter waiter) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                waiterList.remove(waiter);
+                if (!waiterList.isEmpty()) {
+                    return;
+                }
+                done = true;
+            }
+            interestMap.remove(key, this);
+            client.removeListenEs(this);
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void onEvent(Long messageId, EsDmlDTO dml) {
+            if (done) {
+                return;
+            }
+            if (tableName != null && !tableName.equalsIgnoreCase(dml.getTableName())) {
+                return;
+            }
+            Object[] ids = dml.getIds();
+            if (ids.length != 1 || !Objects.equals(primaryKey, Objects.toString(ids[0], null))) {
+                return;
+            }
+            Waiter[] waiters;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                waiters = waiterList.toArray(new Waiter[0]);
+                waiterList.clear();
+            }
+            interestMap.remove(key, this);
+            client.removeListenEs(this);
+            List<EsDmlDTO> hitList = Collections.singletonList(dml);
+            for (int i = 0; i < waiters.length; i++) {
+                ListenEsResponse response = new ListenEsResponse(hitList, waiters[i].timestamp);
+                if (i == 0) {
+                    client.recordLag(response);
+                }
+                waiters[i].future.complete(response);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "RowInterest{" +
+                    "key='" + key + '\'' +
+                    ", done=" + done +
+                    '}';
+        }
+    }
+}
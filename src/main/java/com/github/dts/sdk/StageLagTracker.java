@@ -0,0 +1,60 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+
+/**
+ * 按{@link LagStage}统计的延迟直方图，派发时记录前几个阶段，监听完成时记录后两个阶段
+ */
+class StageLagTracker {
+    private final LagHistogram[] histograms = new LagHistogram[LagStage.values().length];
+
+    StageLagTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LagHistogram();
+        }
+    }
+
+    private void record(LagStage stage, long value) {
+        if (value >= 0) {
+            histograms[stage.ordinal()].record(value);
+        }
+    }
+
+    /**
+     * 每条事件都会调用，直接用EsDmlDTO上的时间计算，不创建EsDmlLag
+     */
+    void recordDispatch(EsDmlDTO dml) {
+        record(LagStage.BINLOG_TO_DTS, EsDmlLag.binlogToDts(dml));
+        record(LagStage.DTS_TO_RECEIVE, EsDmlLag.dtsToReceive(dml));
+        record(dml.getReceiveNanoTime(), dml.getDecodeNanoTime(), dml.getDispatchNanoTime());
+    }
+
+    /**
+     * @param receiveNanoTime  System#nanoTime()，0表示没有记录
+     * @param decodeNanoTime   System#nanoTime()，0表示没有记录
+     * @param dispatchNanoTime System#nanoTime()，0表示没有记录
+     */
+    void record(long receiveNanoTime, long decodeNanoTime, long dispatchNanoTime) {
+        record(LagStage.DECODE, EsDmlLag.nanoToMicros(receiveNanoTime, decodeNanoTime));
+        record(LagStage.DISPATCH, EsDmlLag.nanoToMicros(decodeNanoTime, dispatchNanoTime));
+    }
+
+    void recordComplete(ListenEsResponse response) {
+        long completeTimestamp = response.getTimestamp();
+        long completeNanoTime = response.getCompleteNanoTime();
+        for (EsDmlDTO dml : response.getHitList()) {
+            record(LagStage.COMPLETE, EsDmlLag.nanoToMicros(dml.getDispatchNanoTime(), completeNanoTime));
+            record(LagStage.END_TO_END, EsDmlLag.endToEnd(dml, completeTimestamp));
+        }
+    }
+
+    LagHistogram get(LagStage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    void decay() {
+        for (LagHistogram histogram : histograms) {
+            histogram.decay();
+        }
+    }
+}
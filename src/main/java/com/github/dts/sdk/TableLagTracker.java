@@ -0,0 +1,39 @@
+package com.github.dts.sdk;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 按表统计binlog执行时间(EsDmlDTO#getEs())到SDK收到的延迟。
+ * 表名不区分大小写，查询时不需要转换
+ */
+class TableLagTracker {
+    private final ConcurrentSkipListMap<String, LagHistogram> tableMap = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final LagHistogram all = new LagHistogram();
+
+    void record(String tableName, long lag) {
+        all.record(lag);
+        if (tableName == null) {
+            return;
+        }
+        LagHistogram histogram = tableMap.get(tableName);
+        if (histogram == null) {
+            histogram = tableMap.computeIfAbsent(tableName, k -> new LagHistogram());
+        }
+        histogram.record(lag);
+    }
+
+    /**
+     * @param tableName 为空返回所有表的
+     * @return 没有样本时为空
+     */
+    LagHistogram get(String tableName) {
+        return tableName == null ? all : tableMap.get(tableName);
+    }
+
+    void decay() {
+        all.decay();
+        for (LagHistogram histogram : tableMap.values()) {
+            histogram.decay();
+        }
+    }
+}
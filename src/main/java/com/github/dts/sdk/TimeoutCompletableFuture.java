@@ -3,17 +3,20 @@ package com.github.dts.sdk;
 import java.util.concurrent.*;
 
 public class TimeoutCompletableFuture<T> extends CompletableFuture<T> {
-    private static final TimeoutException TIMEOUT_EXCEPTION = new TimeoutException("DtsSdkListenTimeout");
+    static final TimeoutException TIMEOUT_EXCEPTION = new TimeoutException("DtsSdkListenTimeout");
 
     private final ScheduledFuture<?> timeoutScheduleFuture;
 
     public TimeoutCompletableFuture(long timeout, ScheduledExecutorService scheduled) {
         if (timeout > 0 && timeout < Integer.MAX_VALUE) {
-            this.timeoutScheduleFuture = scheduled.schedule(() -> {
+            ScheduledFuture<?> timeoutScheduleFuture = scheduled.schedule(() -> {
                 if (!isDone()) {
                     completeExceptionally(TIMEOUT_EXCEPTION);
                 }
             }, timeout, TimeUnit.MILLISECONDS);
+            this.timeoutScheduleFuture = timeoutScheduleFuture;
+            // 正常完成也取消超时任务，不留在调度队列里
+            whenComplete((r, t) -> timeoutScheduleFuture.cancel(false));
         } else {
             this.timeoutScheduleFuture = null;
         }
@@ -0,0 +1,35 @@
+package com.github.dts.sdk;
+
+/**
+ * 没有指定超时时间的监听，按表名决定超时时间
+ */
+public interface TimeoutPolicy {
+
+    static TimeoutPolicy fixed(long timeout) {
+        return tableName -> timeout;
+    }
+
+    /**
+     * 按表的同步延迟百分位自适应，timeout = percentile × factor，限制在[minTimeout, maxTimeout]。
+     * 样本不足minSamples时用defaultTimeout
+     */
+    static TimeoutPolicy adaptive(DtsSdkClient client, double percentile, double factor,
+                                  long minTimeout, long maxTimeout, long minSamples, long defaultTimeout) {
+        return tableName -> {
+            LagHistogram histogram = client.getLagHistogram(tableName);
+            long timeout;
+            if (histogram == null || histogram.count() < minSamples) {
+                timeout = defaultTimeout;
+            } else {
+                timeout = (long) (histogram.percentile(percentile) * factor);
+            }
+            return Math.min(Math.max(timeout, minTimeout), maxTimeout);
+        };
+    }
+
+    /**
+     * @param tableName 可能为空
+     * @return 毫秒
+     */
+    long timeout(String tableName);
+}
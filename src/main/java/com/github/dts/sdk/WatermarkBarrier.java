@@ -0,0 +1,119 @@
+package com.github.dts.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.LongSupplier;
+
+/**
+ * 等待所有dump流的binlog时间(EsDmlDTO#getEs)都到达指定时间。
+ * 等待者按时间放在小顶堆里，流前进时只需要看堆顶。
+ * 到达的等待者在锁内出堆，释放锁之后再完成future
+ */
+class WatermarkBarrier {
+    private final PriorityQueue<Waiter> waiterQueue = new PriorityQueue<>();
+    /**
+     * 堆顶的时间，没有等待者时是Long.MAX_VALUE，dump线程无锁判断是否需要计算全局水位
+     */
+    private volatile long minWaitTimestamp = Long.MAX_VALUE;
+
+    CompletableFuture<Long> await(long esTimestamp, long timeout, ScheduledExecutorService scheduled, LongSupplier lowWatermark) {
+        TimeoutCompletableFuture<Long> future = new TimeoutCompletableFuture<>(timeout, scheduled);
+        long low = lowWatermark.getAsLong();
+        if (low >= esTimestamp) {
+            future.complete(low);
+            return future;
+        }
+        List<Waiter> readyList;
+        synchronized (waiterQueue) {
+            waiterQueue.add(new Waiter(esTimestamp, future));
+            // 入队期间流可能已经前进，重新检查一次
+            low = lowWatermark.getAsLong();
+            readyList = pollReady(low);
+        }
+        complete(readyList, low);
+        return future;
+    }
+
+    /**
+     * 某个流的水位前进了
+     *
+     * @param streamWatermark 这个流当前的水位
+     * @param lowWatermark    所有流里最低的水位
+     */
+    void advance(long streamWatermark, LongSupplier lowWatermark) {
+        if (streamWatermark < minWaitTimestamp) {
+            return;
+        }
+        long low = lowWatermark.getAsLong();
+        if (low < minWaitTimestamp) {
+            return;
+        }
+        List<Waiter> readyList;
+        synchronized (waiterQueue) {
+            readyList = pollReady(low);
+        }
+        complete(readyList, low);
+    }
+
+    /**
+     * 持有waiterQueue锁时调用
+     *
+     * @return 已经到达水位的等待者
+     */
+    private List<Waiter> pollReady(long low) {
+        List<Waiter> readyList = Collections.emptyList();
+        Waiter waiter;
+        while ((waiter = waiterQueue.peek()) != null && waiter.esTimestamp <= low) {
+            waiterQueue.poll();
+            if (readyList.isEmpty()) {
+                readyList = new ArrayList<>();
+            }
+            readyList.add(waiter);
+        }
+        minWaitTimestamp = waiter == null ? Long.MAX_VALUE : waiter.esTimestamp;
+        return readyList;
+    }
+
+    private static void complete(List<Waiter> readyList, long low) {
+        for (Waiter waiter : readyList) {
+            waiter.future.complete(low);
+        }
+    }
+
+    void removeDone() {
+        if (minWaitTimestamp == Long.MAX_VALUE) {
+            return;
+        }
+        synchronized (waiterQueue) {
+            if (waiterQueue.removeIf(e -> e.future.isDone())) {
+                Waiter waiter = waiterQueue.peek();
+                minWaitTimestamp = waiter == null ? Long.MAX_VALUE : waiter.esTimestamp;
+            }
+        }
+    }
+
+    int size() {
+        synchronized (waiterQueue) {
+            return waiterQueue.size();
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final long esTimestamp;
+        private final CompletableFuture<Long> future;
+
+        private Waiter(long esTimestamp, CompletableFuture<Long> future) {
+            this.esTimestamp = esTimestamp;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            return Long.compare(esTimestamp, o.esTimestamp);
+        }
+    }
+}
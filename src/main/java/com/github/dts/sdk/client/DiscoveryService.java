@@ -8,6 +8,7 @@ import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.core.env.Environment;
 
 import java.util.List;
+import java.util.Properties;
 
 public interface DiscoveryService {
 
@@ -23,6 +24,9 @@ public interface DiscoveryService {
                     && Util.isNotBlank(config.getYaml().getSdkAccount().getPassword())
                     && Util.isNotEmpty(config.getYaml().getDtsServer())) {
                 discoveryEnum = DtsSdkConfig.DiscoveryEnum.YAML;
+            } else if (PlatformDependentUtil.isSupportNacos()
+                    && Util.isNotBlank(beanFactory.getBean(Environment.class).resolvePlaceholders(config.getNacos().getServerAddr()))) {
+                discoveryEnum = DtsSdkConfig.DiscoveryEnum.NACOS;
             }
         }
         switch (discoveryEnum) {
@@ -46,7 +50,24 @@ public interface DiscoveryService {
                 return new YamlDiscoveryService(config);
             }
             case NACOS: {
-                throw new IllegalArgumentException("current version is not support nacos!");
+                Environment env = beanFactory.getBean(Environment.class);
+                String ip = Util.getIPAddress();
+                Integer port = env.getProperty("server.port", Integer.class, 8080);
+                DtsSdkConfig.ClusterConfig.Nacos nacos = config.getNacos();
+                Properties properties = new Properties();
+                nacos.buildProperties().forEach((k, v) -> {
+                    Object value = v instanceof String ? env.resolvePlaceholders((String) v) : v;
+                    // 占位符没有配置时是空字符串
+                    if (value != null && !"".equals(value)) {
+                        properties.put(k, value);
+                    }
+                });
+                return new NacosDiscoveryService(
+                        NacosDiscoveryService.createNamingService(properties),
+                        env.resolvePlaceholders(nacos.getServiceName()),
+                        env.resolvePlaceholders(nacos.getServerServiceName()),
+                        env.resolvePlaceholders(nacos.getClusterName()),
+                        config, ip, port);
             }
             default: {
                 throw new IllegalArgumentException("ServiceDiscoveryService newInstance fail! remote discovery config is empty!");
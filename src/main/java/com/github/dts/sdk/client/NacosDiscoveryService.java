@@ -0,0 +1,217 @@
+package com.github.dts.sdk.client;
+
+import com.alibaba.nacos.api.exception.NacosException;
+import com.alibaba.nacos.api.naming.NamingFactory;
+import com.alibaba.nacos.api.naming.NamingService;
+import com.alibaba.nacos.api.naming.listener.EventListener;
+import com.alibaba.nacos.api.naming.listener.NamingEvent;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.DifferentComparatorUtil;
+import com.github.dts.sdk.util.ReferenceCounted;
+import com.github.dts.sdk.util.SnowflakeIdWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Nacos服务发现。SDK注册到serviceName，服务端由Nacos推送变更，不轮询。
+ * 服务端列表缓存在本地，getServerListRef不访问Nacos
+ */
+public class NacosDiscoveryService implements DiscoveryService, DisposableBean {
+    public static final String DEVICE_ID = SnowflakeIdWorker.INSTANCE.nextId() + "";
+    public static final String METADATA_DEVICE_ID = "deviceId";
+    public static final String METADATA_ACCOUNT = "account";
+    public static final String METADATA_PASSWORD = "password";
+    private static final Logger log = LoggerFactory.getLogger(NacosDiscoveryService.class);
+    private final NamingService namingService;
+    private final String serviceName;
+    private final String serverServiceName;
+    private final DtsSdkConfig.ClusterConfig clusterConfig;
+    private final SdkInstance sdkInstance;
+    private final Instance sdkNacosInstance;
+    private final ReferenceCounted<List<ServerInstanceClient>> serverInstanceClientListRef = new ReferenceCounted<>(new CopyOnWriteArrayList<>());
+    private final Collection<ServerListener> serverListenerList = new CopyOnWriteArrayList<>();
+    private final EventListener serverEventListener;
+    private volatile boolean destroy;
+    private Map<String, ServerInstance> serverInstanceMap = Collections.emptyMap();
+    private int serverUpdateInstanceCount;
+
+    /**
+     * @param namingService     可以用{@link #createNamingService(Properties)}创建
+     * @param serviceName       SDK注册的服务名
+     * @param serverServiceName DTS服务端注册的服务名
+     * @param clusterName       SDK注册的集群名
+     */
+    public NacosDiscoveryService(NamingService namingService,
+                                 String serviceName,
+                                 String serverServiceName,
+                                 String clusterName,
+                                 DtsSdkConfig.ClusterConfig clusterConfig,
+                                 String ip,
+                                 Integer port) {
+        this.namingService = namingService;
+        this.serviceName = serviceName;
+        this.serverServiceName = serverServiceName;
+        this.clusterConfig = clusterConfig;
+
+        SdkInstance sdkInstance = new SdkInstance();
+        sdkInstance.setDeviceId(DEVICE_ID);
+        sdkInstance.setAccount("sdk" + DEVICE_ID);
+        sdkInstance.setPassword(UUID.randomUUID().toString().replace("-", ""));
+        sdkInstance.setIp(ip);
+        sdkInstance.setPort(port);
+        this.sdkInstance = sdkInstance;
+
+        Instance instance = new Instance();
+        instance.setIp(ip);
+        instance.setPort(port);
+        if (clusterName != null && !clusterName.isEmpty()) {
+            instance.setClusterName(clusterName);
+        }
+        instance.addMetadata(METADATA_DEVICE_ID, sdkInstance.getDeviceId());
+        instance.addMetadata(METADATA_ACCOUNT, sdkInstance.getAccount());
+        instance.addMetadata(METADATA_PASSWORD, sdkInstance.getPassword());
+        this.sdkNacosInstance = instance;
+
+        this.serverEventListener = event -> {
+            if (destroy || !(event instanceof NamingEvent)) {
+                return;
+            }
+            updateServerInstance(toServerInstanceMap(((NamingEvent) event).getInstances()));
+        };
+    }
+
+    public static NamingService createNamingService(Properties properties) {
+        try {
+            return NamingFactory.createNamingService(properties);
+        } catch (NacosException e) {
+            throw new IllegalStateException("createNamingService fail! " + e, e);
+        }
+    }
+
+    private static Map<String, ServerInstance> toServerInstanceMap(List<Instance> instanceList) {
+        Map<String, ServerInstance> map = new LinkedHashMap<>();
+        if (instanceList == null) {
+            return map;
+        }
+        for (Instance instance : instanceList) {
+            if (!instance.isHealthy() || !instance.isEnabled()) {
+                continue;
+            }
+            Map<String, String> metadata = instance.getMetadata();
+            ServerInstance serverInstance = new ServerInstance();
+            serverInstance.setIp(instance.getIp());
+            serverInstance.setPort(instance.getPort());
+            serverInstance.setDeviceId(metadata.getOrDefault(METADATA_DEVICE_ID, instance.getInstanceId()));
+            // 没有账号时用地址区分实例
+            serverInstance.setAccount(metadata.getOrDefault(METADATA_ACCOUNT, instance.getIp() + ":" + instance.getPort()));
+            serverInstance.setPassword(metadata.get(METADATA_PASSWORD));
+            map.put(serverInstance.getAccount(), serverInstance);
+        }
+        return map;
+    }
+
+    public List<ServerInstanceClient> newServerInstanceClient(Collection<ServerInstance> instanceList) {
+        List<ServerInstanceClient> list = instanceList.stream()
+                .map(e -> new ServerInstanceClient(ServerInstanceClient.SocketState.PROBING, sdkInstance, e, clusterConfig))
+                .collect(Collectors.toList());
+        ServerInstanceClient.probe(list, clusterConfig.getTestSocketTimeoutMs());
+        return list;
+    }
+
+    @Override
+    public void registerSdkInstance() {
+        try {
+            namingService.registerInstance(serviceName, sdkNacosInstance);
+            updateServerInstance(toServerInstanceMap(namingService.selectInstances(serverServiceName, true)));
+            // 订阅后Nacos推送变更，本地缓存跟着更新
+            namingService.subscribe(serverServiceName, serverEventListener);
+        } catch (NacosException e) {
+            throw new IllegalStateException("registerSdkInstance fail! " + e, e);
+        }
+    }
+
+    @Override
+    public void addServerListener(ServerListener serverListener) {
+        serverListenerList.add(serverListener);
+    }
+
+    @Override
+    public ReferenceCounted<List<ServerInstanceClient>> getServerListRef() {
+        while (true) {
+            try {
+                return serverInstanceClientListRef.open();
+            } catch (IllegalStateException ignored) {
+
+            }
+        }
+    }
+
+    public synchronized void updateServerInstance(Map<String, ServerInstance> serverInstanceMap) {
+        DifferentComparatorUtil.ListDiffResult<String> diff = DifferentComparatorUtil.listDiff(this.serverInstanceMap.keySet(), serverInstanceMap.keySet());
+        if (diff.isEmpty()) {
+            return;
+        }
+        List<ServerInstance> insertList = diff.getInsertList().stream().map(serverInstanceMap::get).collect(Collectors.toList());
+        List<ServerInstance> deleteList = diff.getDeleteList().stream().map(this.serverInstanceMap::get).collect(Collectors.toList());
+        log.info("updateServerInstance insert={}, delete={}", insertList, deleteList);
+        List<ServerInstanceClient> refs = serverInstanceClientListRef.get();
+        List<ServerInstanceClient> deleteClientList;
+        if (deleteList.isEmpty()) {
+            deleteClientList = Collections.emptyList();
+        } else {
+            Set<String> deleteAccountSet = deleteList.stream().map(ServerInstance::getAccount).collect(Collectors.toSet());
+            deleteClientList = refs.stream().filter(e -> deleteAccountSet.contains(e.getAccount())).collect(Collectors.toList());
+            for (ServerInstanceClient client : deleteClientList) {
+                client.discoveryClose();
+            }
+            refs.removeAll(deleteClientList);
+        }
+        List<ServerInstanceClient> insertClientList;
+        if (insertList.isEmpty()) {
+            insertClientList = Collections.emptyList();
+        } else {
+            insertClientList = newServerInstanceClient(insertList);
+            refs.addAll(insertClientList);
+        }
+        try {
+            notifyServerChangeEvent(insertClientList, deleteClientList);
+        } catch (Exception e) {
+            log.warn("updateServerInstance notifyChangeEvent error {}", e.toString(), e);
+        }
+        this.serverInstanceMap = serverInstanceMap;
+        this.serverUpdateInstanceCount++;
+    }
+
+    private void notifyServerChangeEvent(List<ServerInstanceClient> insertList,
+                                         List<ServerInstanceClient> deleteList) {
+        if (serverListenerList.isEmpty()) {
+            return;
+        }
+        ServerChangeEvent<ServerInstanceClient> event = new ServerChangeEvent<>(serverUpdateInstanceCount, insertList, deleteList);
+        for (ServerListener listener : serverListenerList) {
+            listener.onChange(event);
+        }
+    }
+
+    public SdkInstance getSdkInstance() {
+        return sdkInstance;
+    }
+
+    @Override
+    public void destroy() {
+        this.destroy = true;
+        try {
+            namingService.unsubscribe(serverServiceName, serverEventListener);
+            namingService.deregisterInstance(serviceName, sdkNacosInstance);
+            namingService.shutDown();
+        } catch (NacosException e) {
+            log.warn("destroy error {}", e.toString(), e);
+        }
+    }
+}
@@ -25,12 +25,17 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
     public static final String DEVICE_ID = SnowflakeIdWorker.INSTANCE.nextId() + "";
     private static final Logger log = LoggerFactory.getLogger(RedisDiscoveryService.class);
     private static final int MIN_REDIS_INSTANCE_EXPIRE_SEC = 2;
+    /**
+     * 每页SCAN的数量，也是每次MGET的批量
+     */
+    private static final int SCAN_BATCH_SIZE = 100;
     private static volatile ScheduledExecutorService scheduled;
     private final int redisInstanceExpireSec;
     private final byte[] keySdkPubSubBytes;
@@ -47,6 +52,15 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
     private final ReferenceCounted<List<ServerInstanceClient>> serverInstanceClientListRef = new ReferenceCounted<>(new CopyOnWriteArrayList<>());
     private final Collection<ServerListener> serverListenerList = new CopyOnWriteArrayList<>();
     private final int updateInstanceTimerMs;
+    private final int updateInstanceDebounceMs;
+    /**
+     * 已经安排了一次刷新，还没开始扫描
+     */
+    private final AtomicBoolean updateInstancePending = new AtomicBoolean();
+    /**
+     * 保证扫描不重叠
+     */
+    private final Object updateInstanceLock = new Object();
     private long serverHeartbeatCount;
     private ScheduledFuture<?> sdkHeartbeatScheduledFuture;
     private ScheduledFuture<?> updateServerInstanceScheduledFuture;
@@ -72,6 +86,7 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
         this.sdkInstanceBytes = instanceSdkSerializer.serialize(sdkInstance);
 
         this.updateInstanceTimerMs = clusterConfig.getRedis().getUpdateInstanceTimerMs();
+        this.updateInstanceDebounceMs = clusterConfig.getRedis().getUpdateInstanceDebounceMs();
         this.redisInstanceExpireSec = Math.max(redisInstanceExpireSec, MIN_REDIS_INSTANCE_EXPIRE_SEC);
         this.clusterConfig = clusterConfig;
 
@@ -82,7 +97,7 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
         this.keyServerPubSubBytes = keySerializer.serialize(redisKeyRootPrefix + "svr:mq:sub");
         this.keyServerPubUnsubBytes = keySerializer.serialize(redisKeyRootPrefix + "svr:mq:unsub");
         this.keyServerSetScanOptions = ScanOptions.scanOptions()
-                .count(20)
+                .count(SCAN_BATCH_SIZE)
                 .match(redisKeyRootPrefix + "svr:ls:*")
                 .build();
 
@@ -92,9 +107,9 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
             }
             byte[] channel = message.getChannel();
             if (Arrays.equals(channel, keyServerPubSubBytes)) {
-                updateServerInstance(getServerInstanceMap());
+                onServerInstanceMessage(message.getBody(), true);
             } else if (Arrays.equals(channel, keyServerPubUnsubBytes)) {
-                updateServerInstance(getServerInstanceMap());
+                onServerInstanceMessage(message.getBody(), false);
             }
         };
 
@@ -117,9 +132,8 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
         int size = instanceList.size();
         List<ServerInstanceClient> list = new ArrayList<>(size);
         for (ServerInstance instance : instanceList) {
-            boolean socketConnected = ServerInstance.isSocketConnected(instance, clusterConfig.getTestSocketTimeoutMs());
             try {
-                ServerInstanceClient service = new ServerInstanceClient(socketConnected, sdkInstance, instance, clusterConfig);
+                ServerInstanceClient service = new ServerInstanceClient(ServerInstanceClient.SocketState.PROBING, sdkInstance, instance, clusterConfig);
                 list.add(service);
             } catch (Exception e) {
                 throw new IllegalStateException(
@@ -127,6 +141,8 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
                                 instance.getAccount(), instance.getIp(), instance.getPort()), e);
             }
         }
+        // 不在updateServerInstance的锁里等待探测
+        ServerInstanceClient.probe(list, clusterConfig.getTestSocketTimeoutMs());
         return list;
     }
 
@@ -139,7 +155,9 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
             connection.subscribe(messageServerListener, keyServerPubSubBytes, keyServerPubUnsubBytes);
             return getServerInstanceMap(connection);
         }, true);
-        updateServerInstance(serverInstanceMap);
+        synchronized (updateInstanceLock) {
+            updateServerInstance(serverInstanceMap);
+        }
 
         scheduledUpdateServerInstance();
         scheduledSdkHeartbeat();
@@ -170,7 +188,72 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
         if (updateInstanceTimerMs <= 0) {
             return;
         }
-        this.updateServerInstanceScheduledFuture = getScheduled().scheduleWithFixedDelay(() -> updateServerInstance(getServerInstanceMap()), updateInstanceTimerMs, updateInstanceTimerMs, TimeUnit.MILLISECONDS);
+        this.updateServerInstanceScheduledFuture = getScheduled().scheduleWithFixedDelay(this::refreshServerInstance, updateInstanceTimerMs, updateInstanceTimerMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 消息体是上线或下线的ServerInstance，直接增量更新，解析不了再全量扫描
+     */
+    private void onServerInstanceMessage(byte[] body, boolean insert) {
+        ServerInstance instance;
+        try {
+            instance = body == null || body.length == 0 ? null : instanceServerSerializer.deserialize(body);
+        } catch (Exception e) {
+            log.warn("onServerInstanceMessage deserialize error {}", e.toString(), e);
+            instance = null;
+        }
+        if (instance == null || instance.getAccount() == null) {
+            requestUpdateServerInstance();
+            return;
+        }
+        // 新建客户端会探测网络，不在Redis订阅线程里执行
+        ServerInstance serverInstance = instance;
+        getScheduled().execute(() -> applyServerInstance(serverInstance, insert));
+    }
+
+    /**
+     * 在当前服务端列表上增加或删除一个实例
+     */
+    private void applyServerInstance(ServerInstance instance, boolean insert) {
+        if (destroy) {
+            return;
+        }
+        synchronized (updateInstanceLock) {
+            Map<String, ServerInstance> serverInstanceMap;
+            synchronized (this) {
+                serverInstanceMap = new LinkedHashMap<>(this.serverInstanceMap);
+            }
+            if (insert) {
+                serverInstanceMap.put(instance.getAccount(), instance);
+            } else if (serverInstanceMap.remove(instance.getAccount()) == null) {
+                // 不认识的实例，例如其他SDK下线的通知
+                return;
+            }
+            updateServerInstance(serverInstanceMap);
+        }
+    }
+
+    /**
+     * 请求刷新服务端列表，窗口内的多次请求合并成一次扫描，不在调用线程（Redis订阅线程）里扫描
+     */
+    public void requestUpdateServerInstance() {
+        if (updateInstancePending.compareAndSet(false, true)) {
+            getScheduled().schedule(this::refreshServerInstance, Math.max(updateInstanceDebounceMs, 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 扫描并更新服务端列表，同一时间只有一个扫描
+     */
+    private void refreshServerInstance() {
+        if (destroy) {
+            return;
+        }
+        synchronized (updateInstanceLock) {
+            // 扫描前清除标记，扫描期间的通知会再安排一次
+            updateInstancePending.set(false);
+            updateServerInstance(getServerInstanceMap());
+        }
     }
 
     private synchronized void scheduledSdkHeartbeat() {
@@ -268,26 +351,45 @@ public class RedisDiscoveryService implements DiscoveryService, DisposableBean {
     public Map<String, ServerInstance> getServerInstanceMap(RedisConnection connection) {
         Map<String, ServerInstance> map = new LinkedHashMap<>();
         try (Cursor<byte[]> cursor = connection.scan(keyServerSetScanOptions)) {
+            // 按批MGET，每批一次往返，不再每个key一次GET
+            List<byte[]> keyList = new ArrayList<>(SCAN_BATCH_SIZE);
             while (cursor.hasNext()) {
                 byte[] key = cursor.next();
                 if (key == null) {
                     continue;
                 }
-                byte[] body = connection.get(key);
-                if (body == null) {
-                    continue;
-                }
-                ServerInstance instance = instanceServerSerializer.deserialize(body);
-                if (instance != null) {
-                    map.put(instance.getAccount(), instance);
+                keyList.add(key);
+                if (keyList.size() >= SCAN_BATCH_SIZE) {
+                    mGetServerInstance(connection, keyList, map);
+                    keyList.clear();
                 }
             }
+            if (!keyList.isEmpty()) {
+                mGetServerInstance(connection, keyList, map);
+            }
         } catch (Exception ignored) {
             return null;
         }
         return map;
     }
 
+    private void mGetServerInstance(RedisConnection connection, List<byte[]> keyList, Map<String, ServerInstance> map) {
+        List<byte[]> bodyList = connection.mGet(keyList.toArray(new byte[keyList.size()][]));
+        if (bodyList == null) {
+            return;
+        }
+        for (byte[] body : bodyList) {
+            // key在SCAN和MGET之间过期了
+            if (body == null) {
+                continue;
+            }
+            ServerInstance instance = instanceServerSerializer.deserialize(body);
+            if (instance != null) {
+                map.put(instance.getAccount(), instance);
+            }
+        }
+    }
+
     @Override
     public void destroy() {
         this.destroy = true;
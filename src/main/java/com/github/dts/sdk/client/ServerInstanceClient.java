@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
@@ -17,20 +18,28 @@ import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ServerInstanceClient {
     private static final Logger log = LoggerFactory.getLogger(ServerInstanceClient.class);
+    private static volatile ThreadPoolExecutor probeExecutor;
     private final SdkInstance sdkInstance;
     private final ServerInstance serverInstance;
     private final DtsSdkConfig.ClusterConfig clusterConfig;
     /**
      * 网络是否可以连上
      */
-    private final boolean socketConnected;
+    private final AtomicReference<SocketState> socketState;
     private final Set<URLConnection> connectionList = Collections.newSetFromMap(new IdentityHashMap<>());
     private final AtomicBoolean close = new AtomicBoolean(false);
     private volatile int discoveryCloseCount = 0;
@@ -39,12 +48,68 @@ public class ServerInstanceClient {
                                 SdkInstance sdkInstance,
                                 ServerInstance serverInstance,
                                 DtsSdkConfig.ClusterConfig clusterConfig) {
-        this.socketConnected = socketConnected;
+        this(socketConnected ? SocketState.CONNECTED : SocketState.UNREACHABLE, sdkInstance, serverInstance, clusterConfig);
+    }
+
+    /**
+     * @param socketState PROBING表示还没探测，由{@link #probe(Collection, int)}或dump线程得出结果
+     */
+    public ServerInstanceClient(SocketState socketState,
+                                SdkInstance sdkInstance,
+                                ServerInstance serverInstance,
+                                DtsSdkConfig.ClusterConfig clusterConfig) {
+        this.socketState = new AtomicReference<>(socketState);
         this.sdkInstance = sdkInstance;
         this.serverInstance = serverInstance;
         this.clusterConfig = clusterConfig;
     }
 
+    private static ThreadPoolExecutor getProbeExecutor() {
+        if (probeExecutor == null) {
+            synchronized (ServerInstanceClient.class) {
+                if (probeExecutor == null) {
+                    ThreadPoolExecutor executor = Util.newFixedThreadPool(16, 16, 60000L, "DTS-probe-", true, true, -1);
+                    // 所有client共用，不随client关闭，不能阻止JVM退出
+                    ThreadFactory threadFactory = executor.getThreadFactory();
+                    executor.setThreadFactory(r -> {
+                        Thread thread = threadFactory.newThread(r);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    probeExecutor = executor;
+                }
+            }
+        }
+        return probeExecutor;
+    }
+
+    /**
+     * 并行探测网络，所有探测共用一个截止时间，不会因为服务端数量多而变长。
+     * 截止时还没探测的保持PROBING，由dump线程连接的结果决定
+     *
+     * @param timeoutMs 整批探测的截止时间
+     * @return 整批探测结束
+     */
+    public static CompletableFuture<Void> probe(Collection<ServerInstanceClient> clientList, int timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<CompletableFuture<Void>> futureList = new ArrayList<>(clientList.size());
+        for (ServerInstanceClient client : clientList) {
+            if (client.getSocketState() != SocketState.PROBING) {
+                continue;
+            }
+            futureList.add(CompletableFuture.runAsync(() -> {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0 || client.getSocketState() != SocketState.PROBING) {
+                    return;
+                }
+                boolean connected = ServerInstance.isSocketConnected(client.serverInstance, (int) remainingMs);
+                // dump线程已经有结果了就不覆盖
+                client.socketState.compareAndSet(SocketState.PROBING, connected ? SocketState.CONNECTED : SocketState.UNREACHABLE);
+            }, getProbeExecutor()));
+        }
+        return CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0]));
+    }
+
     private static URLConnection openConnection(URL url, String basicAuth) throws IOException {
         URLConnection connection = url.openConnection();
         connection.setRequestProperty("Authorization", basicAuth);
@@ -97,6 +162,8 @@ public class ServerInstanceClient {
                         connection.getInputStream();
                         success = true;
                         discoveryCloseCount = 0;
+                        // 连上了就不再重试，否则会多建立连接
+                        break;
                     } catch (IOException ignored) {
                         try {
                             Thread.sleep(retrySleep);
@@ -107,6 +174,8 @@ public class ServerInstanceClient {
                 }
                 if (success) {
                     log.warn("dump reconnection success {}", url);
+                    socketState.set(SocketState.CONNECTED);
+                    listener.onReconnect();
                 } else {
                     if (close.get()) {
                         return;
@@ -115,6 +184,7 @@ public class ServerInstanceClient {
                         close();
                         return;
                     }
+                    socketState.set(SocketState.UNREACHABLE);
                     Util.sneakyThrows(e);
                     return;
                 }
@@ -131,15 +201,36 @@ public class ServerInstanceClient {
             connectionList.add(connection);
         }
         BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8")));
+        socketState.set(SocketState.CONNECTED);
+        listener.onConnect();
+        read(connection, reader, objectReader, listener);
+    }
+
+    /**
+     * 按SSE格式解析，每个完整的ES_DML帧派发一次
+     *
+     * @param connection 读取失败时断开，可以为空
+     * @throws EOFException 服务端关闭了连接
+     */
+    void read(URLConnection connection, BufferedReader reader, JsonUtil.ObjectReader objectReader, DumpListener listener) throws IOException {
         Buffer buffer = new Buffer();
         while (!close.get()) {
             String s1;
             try {
                 s1 = reader.readLine();
+                if (s1 == null) {
+                    throw new EOFException("dump stream closed by server");
+                }
             } catch (Exception e) {
-                disconnect(connection);
+                if (connection != null) {
+                    disconnect(connection);
+                }
                 throw e;
             }
+            if (buffer.isEmpty() && !s1.isEmpty()) {
+                buffer.receiveTimestamp = System.currentTimeMillis();
+                buffer.receiveNanoTime = System.nanoTime();
+            }
             if (s1.startsWith("id:")) {
                 buffer.id = Long.parseLong(s1.substring("id:".length()));
             } else if (s1.startsWith("event:")) {
@@ -151,6 +242,7 @@ public class ServerInstanceClient {
                     MessageTypeEnum type = MessageTypeEnum.getByType(buffer.event);
                     if (type == MessageTypeEnum.ES_DML) {
                         EsDmlDTO dmlDTO = objectReader.readValue(buffer.data, EsDmlDTO.class);
+                        buffer.mark(dmlDTO);
                         listener.onEvent(buffer.id, dmlDTO);
                     }
                 } finally {
@@ -165,7 +257,11 @@ public class ServerInstanceClient {
     }
 
     public boolean isSocketConnected() {
-        return socketConnected;
+        return socketState.get() == SocketState.CONNECTED;
+    }
+
+    public SocketState getSocketState() {
+        return socketState.get();
     }
 
     public ServerInstance getServerInstance() {
@@ -194,6 +290,15 @@ public class ServerInstanceClient {
         }
     }
 
+    /**
+     * 在dump线程之外关闭。dump线程阻塞在读取时持有流的锁，disconnect要等到下一条数据才能拿到锁，所以不在调用线程里等待
+     */
+    public void closeAsync() {
+        Thread thread = new Thread(this::close, "DTS-close-" + serverInstance.getIp() + "_" + serverInstance.getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     public void close() {
         if (close.compareAndSet(false, true)) {
             log.info("server client close {}", serverInstance);
@@ -248,21 +353,51 @@ public class ServerInstanceClient {
 
     public interface DumpListener {
         void onEvent(Long messageId, Object data);
+
+        /**
+         * 断线后重连成功
+         */
+        default void onReconnect() {
+        }
+
+        /**
+         * 流连上了，第一次连接和重连都会调用
+         */
+        default void onConnect() {
+        }
     }
 
     static class Buffer {
         Long id;
         String event;
         String data;
+        long receiveTimestamp;
+        long receiveNanoTime;
+
+        void mark(EsDmlDTO dmlDTO) {
+            dmlDTO.markReceive(receiveTimestamp, receiveNanoTime);
+            dmlDTO.markDecode(System.nanoTime());
+        }
 
         void clear() {
             this.id = null;
             this.event = null;
             this.data = null;
+            this.receiveTimestamp = 0;
+            this.receiveNanoTime = 0;
         }
 
         public boolean isEmpty() {
             return id == null && event == null && data == null;
         }
     }
+
+    public enum SocketState {
+        /**
+         * 还没有探测结果
+         */
+        PROBING,
+        CONNECTED,
+        UNREACHABLE
+    }
 }
@@ -1,17 +1,38 @@
 package com.github.dts.sdk.client;
 
 import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.DifferentComparatorUtil;
 import com.github.dts.sdk.util.ReferenceCounted;
 import com.github.dts.sdk.util.SnowflakeIdWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
 
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
-public class YamlDiscoveryService implements DiscoveryService {
+/**
+ * 配置文件里的服务端列表。配置刷新(spring-cloud的EnvironmentChangeEvent)后重新读取dtsServer，
+ * 新增的服务端开始dump，删除的服务端断开连接
+ */
+public class YamlDiscoveryService implements DiscoveryService, ApplicationListener<ApplicationEvent> {
     public static final String DEVICE_ID = SnowflakeIdWorker.INSTANCE.nextId() + "";
+    private static final Logger log = LoggerFactory.getLogger(YamlDiscoveryService.class);
+    /**
+     * 不依赖spring-cloud-context，按类名判断。
+     * EnvironmentChangeEvent时@ConfigurationProperties可能还没重新绑定，RefreshScopeRefreshedEvent时一定绑定完了，两次刷新没有变化时不会通知
+     */
+    private static final Set<String> REFRESH_EVENT_CLASS_NAMES = new HashSet<>(Arrays.asList(
+            "org.springframework.cloud.context.environment.EnvironmentChangeEvent",
+            "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent"));
     private final DtsSdkConfig.ClusterConfig config;
+    private final SdkInstance sdkInstance;
     private final ReferenceCounted<List<ServerInstanceClient>> serverListRef;
+    private final Collection<ServerListener> serverListenerList = new CopyOnWriteArrayList<>();
+    private List<ServerInstance> serverInstanceList;
+    private int serverUpdateInstanceCount;
 
     public YamlDiscoveryService(DtsSdkConfig.ClusterConfig config) {
         this.config = config;
@@ -24,11 +45,20 @@ public class YamlDiscoveryService implements DiscoveryService {
         DtsSdkConfig.SdkAccount sdkAccount = yaml.getSdkAccount();
 
         yaml.getSdkAccount().validate();
-        List<ServerInstance> instanceList = serverInstanceList(dtsServerList);
-        List<ServerInstanceClient> clientList = serverInstanceClientList(sdkAccount, instanceList);
+        SdkInstance sdkInstance = new SdkInstance();
+        sdkInstance.setDeviceId(DEVICE_ID);
+        sdkInstance.setAccount(sdkAccount.getAccount());
+        sdkInstance.setPassword(sdkAccount.getPassword());
+        this.sdkInstance = sdkInstance;
+        this.serverInstanceList = serverInstanceList(dtsServerList);
+        List<ServerInstanceClient> clientList = serverInstanceClientList(serverInstanceList);
         serverListRef = new ReferenceCounted<>(new CopyOnWriteArrayList<>(clientList));
     }
 
+    private static String address(ServerInstance instance) {
+        return instance.getIp() + ":" + instance.getPort();
+    }
+
     private List<ServerInstance> serverInstanceList(List<DtsSdkConfig.DtsServer> sdkAccount) {
         return sdkAccount.stream().map(e -> {
             ServerInstance instance = new ServerInstance();
@@ -38,15 +68,80 @@ public class YamlDiscoveryService implements DiscoveryService {
         }).collect(Collectors.toList());
     }
 
-    private List<ServerInstanceClient> serverInstanceClientList(DtsSdkConfig.SdkAccount sdkAccount, List<ServerInstance> serverInstanceList) {
-        SdkInstance sdkInstance = new SdkInstance();
-        sdkInstance.setDeviceId(DEVICE_ID);
-        sdkInstance.setAccount(sdkAccount.getAccount());
-        sdkInstance.setPassword(sdkAccount.getPassword());
-        return serverInstanceList.stream().map(e -> {
-            boolean socketConnected = ServerInstance.isSocketConnected(e, config.getTestSocketTimeoutMs());
-            return new ServerInstanceClient(socketConnected, sdkInstance, e, config);
-        }).collect(Collectors.toList());
+    private List<ServerInstanceClient> serverInstanceClientList(List<ServerInstance> serverInstanceList) {
+        List<ServerInstanceClient> list = serverInstanceList.stream()
+                .map(e -> new ServerInstanceClient(ServerInstanceClient.SocketState.PROBING, sdkInstance, e, config))
+                .collect(Collectors.toList());
+        // 启动时不等待探测
+        ServerInstanceClient.probe(list, config.getTestSocketTimeoutMs());
+        return list;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (REFRESH_EVENT_CLASS_NAMES.contains(event.getClass().getName())) {
+            refresh();
+        }
+    }
+
+    /**
+     * 重新读取配置里的dtsServer
+     */
+    public void refresh() {
+        List<DtsSdkConfig.DtsServer> dtsServerList = config.getYaml().getDtsServer();
+        try {
+            for (DtsSdkConfig.DtsServer dtsServer : dtsServerList) {
+                dtsServer.validate();
+            }
+        } catch (Exception e) {
+            log.warn("refresh dtsServer invalid, keep current {}", e.toString(), e);
+            return;
+        }
+        updateServerInstance(serverInstanceList(dtsServerList));
+    }
+
+    /**
+     * 按ip:port和当前列表比较，通知新增和删除
+     */
+    public synchronized void updateServerInstance(List<ServerInstance> serverInstanceList) {
+        DifferentComparatorUtil.ListDiffResult<ServerInstance> diff = DifferentComparatorUtil.listDiff(this.serverInstanceList, serverInstanceList, YamlDiscoveryService::address);
+        if (diff.isEmpty()) {
+            return;
+        }
+        log.info("updateServerInstance insert={}, delete={}", diff.getInsertList(), diff.getDeleteList());
+        List<ServerInstanceClient> refs = serverListRef.get();
+        List<ServerInstanceClient> deleteClientList;
+        if (diff.getDeleteList().isEmpty()) {
+            deleteClientList = Collections.emptyList();
+        } else {
+            Set<String> deleteAddressSet = diff.getDeleteList().stream().map(YamlDiscoveryService::address).collect(Collectors.toSet());
+            deleteClientList = refs.stream().filter(e -> deleteAddressSet.contains(address(e.getServerInstance()))).collect(Collectors.toList());
+            refs.removeAll(deleteClientList);
+            // 服务端可能还在运行，主动断开，dump线程读到下一条数据后退出
+            for (ServerInstanceClient client : deleteClientList) {
+                client.closeAsync();
+            }
+        }
+        List<ServerInstanceClient> insertClientList;
+        if (diff.getInsertList().isEmpty()) {
+            insertClientList = Collections.emptyList();
+        } else {
+            insertClientList = serverInstanceClientList(diff.getInsertList());
+            refs.addAll(insertClientList);
+        }
+        this.serverInstanceList = serverInstanceList;
+        this.serverUpdateInstanceCount++;
+        if (serverListenerList.isEmpty()) {
+            return;
+        }
+        ServerChangeEvent<ServerInstanceClient> event = new ServerChangeEvent<>(serverUpdateInstanceCount, insertClientList, deleteClientList);
+        for (ServerListener listener : serverListenerList) {
+            try {
+                listener.onChange(event);
+            } catch (Exception e) {
+                log.warn("updateServerInstance notifyChangeEvent error {}", e.toString(), e);
+            }
+        }
     }
 
     @Override
@@ -56,6 +151,7 @@ public class YamlDiscoveryService implements DiscoveryService {
 
     @Override
     public void addServerListener(ServerListener serverListener) {
+        serverListenerList.add(serverListener);
     }
 
     @Override
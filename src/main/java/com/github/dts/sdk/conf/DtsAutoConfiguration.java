@@ -3,6 +3,7 @@ package com.github.dts.sdk.conf;
 import com.github.dts.sdk.DtsSdkClient;
 import com.github.dts.sdk.client.DiscoveryService;
 import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,4 +20,16 @@ public class DtsAutoConfiguration {
     public DiscoveryService discoveryService(DtsSdkConfig config, ListableBeanFactory beanFactory) {
         return DiscoveryService.newInstance(config.getCluster(), beanFactory);
     }
+
+    /**
+     * 有Micrometer时导出指标
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+    public static class DtsMetricsConfiguration {
+        @Bean
+        public DtsSdkMeterBinder dtsSdkMeterBinder(DtsSdkClient dtsClient) {
+            return new DtsSdkMeterBinder(dtsClient);
+        }
+    }
 }
@@ -11,6 +11,132 @@ public class DtsSdkConfig {
     private long requestRetrySleep = 6000L;
     private int requestMaxRetry = 10;
     private int clearDoneInterval = 50;
+    /**
+     * DtsEsRowFutureBuilder回看最近事件的数量上限和时间上限
+     */
+    private int lookbackMaxSize = 10000;
+    private long lookbackMaxAgeMs = 10000L;
+    /**
+     * 未build的DtsEsRowFutureBuilder最长存活时间，超过后自动释放并打印泄漏日志
+     */
+    private long builderMaxLifetimeMs = 60000L;
+    /**
+     * 记录builder的创建位置，泄漏日志会带上调用栈，有性能损耗
+     */
+    private boolean builderLeakTrace = false;
+    /**
+     * 按表统计的同步延迟每隔多久衰减一半
+     */
+    private long lagDecayIntervalMs = 60000L;
+    /**
+     * 没有指定超时时间的监听，按表的同步延迟自适应超时：p(adaptiveTimeoutPercentile) × adaptiveTimeoutFactor，
+     * 限制在[adaptiveTimeoutMinMs, adaptiveTimeoutMaxMs]。关闭时固定用DtsSdkClient#DEFAULT_ROW_TIMEOUT
+     */
+    private boolean adaptiveTimeout = false;
+    private double adaptiveTimeoutPercentile = 0.99D;
+    private double adaptiveTimeoutFactor = 2D;
+    private long adaptiveTimeoutMinMs = 200L;
+    private long adaptiveTimeoutMaxMs = 10000L;
+    /**
+     * 样本数不够时用默认超时
+     */
+    private long adaptiveTimeoutMinSamples = 100L;
+    /**
+     * 后台执行服务发现和连接，构造DtsSdkClient不阻塞，用DtsSdkClient#readiness()等待就绪
+     */
+    private boolean asyncStartup = false;
+    /**
+     * 第一个流连上之前发起的监听怎么处理
+     */
+    private NotReadyPolicy notReadyPolicy = NotReadyPolicy.HOLD;
+
+    public long getLagDecayIntervalMs() {
+        return lagDecayIntervalMs;
+    }
+
+    public void setLagDecayIntervalMs(long lagDecayIntervalMs) {
+        this.lagDecayIntervalMs = lagDecayIntervalMs;
+    }
+
+    public boolean isAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    public void setAdaptiveTimeout(boolean adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
+    public double getAdaptiveTimeoutPercentile() {
+        return adaptiveTimeoutPercentile;
+    }
+
+    public void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile) {
+        this.adaptiveTimeoutPercentile = adaptiveTimeoutPercentile;
+    }
+
+    public double getAdaptiveTimeoutFactor() {
+        return adaptiveTimeoutFactor;
+    }
+
+    public void setAdaptiveTimeoutFactor(double adaptiveTimeoutFactor) {
+        this.adaptiveTimeoutFactor = adaptiveTimeoutFactor;
+    }
+
+    public long getAdaptiveTimeoutMinMs() {
+        return adaptiveTimeoutMinMs;
+    }
+
+    public void setAdaptiveTimeoutMinMs(long adaptiveTimeoutMinMs) {
+        this.adaptiveTimeoutMinMs = adaptiveTimeoutMinMs;
+    }
+
+    public long getAdaptiveTimeoutMaxMs() {
+        return adaptiveTimeoutMaxMs;
+    }
+
+    public void setAdaptiveTimeoutMaxMs(long adaptiveTimeoutMaxMs) {
+        this.adaptiveTimeoutMaxMs = adaptiveTimeoutMaxMs;
+    }
+
+    public long getAdaptiveTimeoutMinSamples() {
+        return adaptiveTimeoutMinSamples;
+    }
+
+    public void setAdaptiveTimeoutMinSamples(long adaptiveTimeoutMinSamples) {
+        this.adaptiveTimeoutMinSamples = adaptiveTimeoutMinSamples;
+    }
+
+    public long getBuilderMaxLifetimeMs() {
+        return builderMaxLifetimeMs;
+    }
+
+    public void setBuilderMaxLifetimeMs(long builderMaxLifetimeMs) {
+        this.builderMaxLifetimeMs = builderMaxLifetimeMs;
+    }
+
+    public boolean isBuilderLeakTrace() {
+        return builderLeakTrace;
+    }
+
+    public void setBuilderLeakTrace(boolean builderLeakTrace) {
+        this.builderLeakTrace = builderLeakTrace;
+    }
+
+    public int getLookbackMaxSize() {
+        return lookbackMaxSize;
+    }
+
+    public void setLookbackMaxSize(int lookbackMaxSize) {
+        this.lookbackMaxSize = lookbackMaxSize;
+    }
+
+    public long getLookbackMaxAgeMs() {
+        return lookbackMaxAgeMs;
+    }
+
+    public void setLookbackMaxAgeMs(long lookbackMaxAgeMs) {
+        this.lookbackMaxAgeMs = lookbackMaxAgeMs;
+    }
 
     public int getClearDoneInterval() {
         return clearDoneInterval;
@@ -40,6 +166,22 @@ public class DtsSdkConfig {
         return cluster;
     }
 
+    public boolean isAsyncStartup() {
+        return asyncStartup;
+    }
+
+    public void setAsyncStartup(boolean asyncStartup) {
+        this.asyncStartup = asyncStartup;
+    }
+
+    public NotReadyPolicy getNotReadyPolicy() {
+        return notReadyPolicy;
+    }
+
+    public void setNotReadyPolicy(NotReadyPolicy notReadyPolicy) {
+        this.notReadyPolicy = notReadyPolicy;
+    }
+
     public enum DiscoveryEnum {
         AUTO,
         REDIS,
@@ -107,8 +249,18 @@ public class DtsSdkConfig {
             private String redisConnectionFactoryBeanName = "redisConnectionFactory";
             private String redisKeyRootPrefix = "dts:${spring.profiles.active:def}";
             private int redisInstanceExpireSec = 10;
-            // 防止sub，pub命令有延迟，增加定时轮训
-            private int updateInstanceTimerMs = 5000;
+            // pub/sub消息是增量更新，定时全量扫描用来修正丢失的消息和没有下线通知就过期的实例
+            private int updateInstanceTimerMs = 30000;
+            // 合并这段时间内收到的pub/sub通知，只扫描一次
+            private int updateInstanceDebounceMs = 200;
+
+            public int getUpdateInstanceDebounceMs() {
+                return updateInstanceDebounceMs;
+            }
+
+            public void setUpdateInstanceDebounceMs(int updateInstanceDebounceMs) {
+                this.updateInstanceDebounceMs = updateInstanceDebounceMs;
+            }
 
             public int getUpdateInstanceTimerMs() {
                 return updateInstanceTimerMs;
@@ -164,7 +316,10 @@ public class DtsSdkConfig {
         public static class Nacos {
             private String serverAddr = "${nacos.discovery.server-addr:${nacos.config.server-addr:${spring.cloud.nacos.server-addr:${spring.cloud.nacos.discovery.server-addr:${spring.cloud.nacos.config.server-addr:}}}}}";
             private String namespace = "${nacos.discovery.namespace:${nacos.config.namespace:${spring.cloud.nacos.namespace:${spring.cloud.nacos.discovery.namespace:${spring.cloud.nacos.config.namespace:}}}}}";
+            // SDK注册的服务名
             private String serviceName = "${spring.application.name:dts-sdk}";
+            // DTS服务端注册的服务名
+            private String serverServiceName = "dts-server";
             private String clusterName = "${nacos.discovery.clusterName:${nacos.config.clusterName:${spring.cloud.nacos.clusterName:${spring.cloud.nacos.discovery.clusterName:${spring.cloud.nacos.config.clusterName:DEFAULT}}}}}";
             private Properties properties = new Properties();
 
@@ -204,6 +359,14 @@ public class DtsSdkConfig {
                 this.serviceName = serviceName;
             }
 
+            public String getServerServiceName() {
+                return serverServiceName;
+            }
+
+            public void setServerServiceName(String serverServiceName) {
+                this.serverServiceName = serverServiceName;
+            }
+
             public String getClusterName() {
                 return clusterName;
             }
@@ -282,4 +445,15 @@ public class DtsSdkConfig {
             this.password = password;
         }
     }
+
+    public enum NotReadyPolicy {
+        /**
+         * 正常注册，流连上后收到事件，超时时间从发起监听开始算
+         */
+        HOLD,
+        /**
+         * 立即失败，异常是IllegalStateException("DtsSdkNotReady")
+         */
+        FAIL_FAST
+    }
 }
@@ -0,0 +1,91 @@
+package com.github.dts.sdk.conf;
+
+import com.github.dts.sdk.DtsSdkClient;
+import com.github.dts.sdk.DtsSdkMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 导出DtsSdkMetrics到Micrometer，指标都是读取时从LongAdder汇总，派发事件时不会分配对象
+ */
+public class DtsSdkMeterBinder implements MeterBinder {
+    private final DtsSdkClient client;
+
+    public DtsSdkMeterBinder(DtsSdkClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return 注册的指标，流被删除时注销
+     */
+    private static List<Meter> bindStream(MeterRegistry registry, DtsSdkMetrics.StreamMetrics stream) {
+        return Arrays.asList(
+                FunctionCounter.builder("dts.sdk.stream.events", stream, DtsSdkMetrics.StreamMetrics::getEventCount)
+                        .tag("server", stream.getServer())
+                        .description("events received from the DTS server")
+                        .register(registry),
+                FunctionCounter.builder("dts.sdk.stream.reconnects", stream, DtsSdkMetrics.StreamMetrics::getReconnectCount)
+                        .tag("server", stream.getServer())
+                        .description("successful reconnects after the dump stream broke")
+                        .register(registry),
+                FunctionTimer.builder("dts.sdk.stream.decode", stream,
+                                DtsSdkMetrics.StreamMetrics::getDecodeCount, DtsSdkMetrics.StreamMetrics::getDecodeNanos, TimeUnit.NANOSECONDS)
+                        .tag("server", stream.getServer())
+                        .description("SSE frame receive to EsDmlDTO decoded")
+                        .register(registry));
+    }
+
+    private static void bindListen(MeterRegistry registry, DtsSdkMetrics metrics, String outcome,
+                                   ToDoubleFunction<DtsSdkMetrics> function) {
+        FunctionCounter.builder("dts.sdk.listen", metrics, function)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        DtsSdkMetrics metrics = client.getMetrics();
+        Map<DtsSdkMetrics.StreamMetrics, List<Meter>> streamMeterMap = new ConcurrentHashMap<>();
+        metrics.addStreamRemoveListener(stream -> {
+            List<Meter> meterList = streamMeterMap.remove(stream);
+            if (meterList != null) {
+                for (Meter meter : meterList) {
+                    registry.remove(meter);
+                }
+            }
+        });
+        metrics.addStreamListener(stream -> streamMeterMap.put(stream, bindStream(registry, stream)));
+        Gauge.builder("dts.sdk.streams", client, DtsSdkClient::getDumpCount)
+                .register(registry);
+        Gauge.builder("dts.sdk.listeners", client, DtsSdkClient::getListenerCount)
+                .description("registered listeners waiting for events")
+                .register(registry);
+        FunctionTimer.builder("dts.sdk.dispatch", metrics,
+                        DtsSdkMetrics::getDispatchCount, DtsSdkMetrics::getDispatchNanos, TimeUnit.NANOSECONDS)
+                .description("dispatch one event to the matching listeners")
+                .register(registry);
+        bindListen(registry, metrics, "complete", DtsSdkMetrics::getListenComplete);
+        bindListen(registry, metrics, "timeout", DtsSdkMetrics::getListenTimeout);
+        bindListen(registry, metrics, "cancel", DtsSdkMetrics::getListenCancel);
+        bindListen(registry, metrics, "error", DtsSdkMetrics::getListenError);
+        FunctionCounter.builder("dts.sdk.discovery.changes", metrics, DtsSdkMetrics::getDiscoveryChange)
+                .register(registry);
+        FunctionCounter.builder("dts.sdk.discovery.servers", metrics, DtsSdkMetrics::getDiscoveryInsert)
+                .tag("change", "insert")
+                .register(registry);
+        FunctionCounter.builder("dts.sdk.discovery.servers", metrics, DtsSdkMetrics::getDiscoveryDelete)
+                .tag("change", "delete")
+                .register(registry);
+    }
+}
@@ -19,6 +19,54 @@ public class EsDmlDTO implements Dml {
 
     private transient Object[] id;
     private transient String toStringCache;
+    /**
+     * SDK内各阶段的时间，System#nanoTime()，0表示没有记录
+     */
+    private transient long receiveTimestamp;
+    private transient long receiveNanoTime;
+    private transient long decodeNanoTime;
+    private transient long dispatchNanoTime;
+
+    /**
+     * 收到SSE帧的第一行
+     *
+     * @param timestamp 毫秒，用来和es、ts比较
+     * @param nanoTime  System#nanoTime()
+     */
+    public void markReceive(long timestamp, long nanoTime) {
+        this.receiveTimestamp = timestamp;
+        this.receiveNanoTime = nanoTime;
+    }
+
+    /**
+     * JSON解析完成
+     */
+    public void markDecode(long nanoTime) {
+        this.decodeNanoTime = nanoTime;
+    }
+
+    /**
+     * 开始派发给listener
+     */
+    public void markDispatch(long nanoTime) {
+        this.dispatchNanoTime = nanoTime;
+    }
+
+    public long getReceiveTimestamp() {
+        return receiveTimestamp;
+    }
+
+    public long getReceiveNanoTime() {
+        return receiveNanoTime;
+    }
+
+    public long getDecodeNanoTime() {
+        return decodeNanoTime;
+    }
+
+    public long getDispatchNanoTime() {
+        return dispatchNanoTime;
+    }
 
     public boolean isEffect() {
         if (dependents == null || dependents.isEmpty()) {
@@ -7,6 +7,20 @@ public class JsonUtil {
     }
 
     public static ObjectReader objectReader() {
+        ObjectReader objectReader = jacksonObjectReader();
+        if (objectReader == null) {
+            objectReader = fastjsonObjectReader();
+        }
+        if (objectReader == null) {
+            throw new UnsupportedOperationException("objectReader#jsonToBean");
+        }
+        return objectReader;
+    }
+
+    /**
+     * @return 没有jackson时为空
+     */
+    public static ObjectReader jacksonObjectReader() {
         if (PlatformDependentUtil.JACKSON_OBJECT_MAPPER_CONSTRUCTOR != null && PlatformDependentUtil.JACKSON_READ_VALUE_METHOD != null) {
             try {
                 Object jacksonObjectMapper = PlatformDependentUtil.JACKSON_OBJECT_MAPPER_CONSTRUCTOR.newInstance();
@@ -25,13 +39,19 @@ public class JsonUtil {
             } catch (Exception ignored) {
             }
         }
+        return null;
+    }
 
+    /**
+     * @return 没有fastjson时为空
+     */
+    public static ObjectReader fastjsonObjectReader() {
         if (PlatformDependentUtil.FASTJSON_PARSE_OBJECT_METHOD != null) {
             return new ObjectReader() {
                 @Override
                 public <T> T readValue(String json, Class<T> type) throws IOException {
                     try {
-                        return (T) PlatformDependentUtil.FASTJSON_PARSE_OBJECT_METHOD.invoke(json, type);
+                        return (T) PlatformDependentUtil.FASTJSON_PARSE_OBJECT_METHOD.invoke(null, json, type);
                     } catch (Exception e) {
                         Util.sneakyThrows(e);
                         return null;
@@ -39,7 +59,7 @@ public class JsonUtil {
                 }
             };
         }
-        throw new UnsupportedOperationException("objectReader#jsonToBean");
+        return null;
     }
 
     private static void jacksonConfigure(Object jacksonObjectMapper) {
@@ -9,6 +9,7 @@ public class PlatformDependentUtil {
     public static final Method JACKSON_CONFIGURE_METHOD;
     public static final Method FASTJSON_PARSE_OBJECT_METHOD;
     public static final Class REDIS_CONNECTION_FACTORY_CLASS;
+    public static final Class NACOS_NAMING_SERVICE_CLASS;
     public static final Class<? extends Enum> JACKSON_DESERIALIZATION_FEATURE_CLASS;
 
     static {
@@ -54,10 +55,22 @@ public class PlatformDependentUtil {
             redisConnectionFactory = null;
         }
         REDIS_CONNECTION_FACTORY_CLASS = redisConnectionFactory;
+
+        Class nacosNamingService;
+        try {
+            nacosNamingService = Class.forName("com.alibaba.nacos.api.naming.NamingService");
+        } catch (Throwable e) {
+            nacosNamingService = null;
+        }
+        NACOS_NAMING_SERVICE_CLASS = nacosNamingService;
     }
 
     public static boolean isSupportSpringframeworkRedis() {
         return REDIS_CONNECTION_FACTORY_CLASS != null;
     }
 
+    public static boolean isSupportNacos() {
+        return NACOS_NAMING_SERVICE_CLASS != null;
+    }
+
 }
@@ -0,0 +1,77 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncStartupTest {
+
+    private static DtsSdkConfig newConfig(DtsSdkConfig.NotReadyPolicy policy) {
+        DtsSdkConfig config = new DtsSdkConfig();
+        config.setAsyncStartup(true);
+        config.setNotReadyPolicy(policy);
+        return config;
+    }
+
+    @Test
+    public void hold() throws Exception {
+        SlowDiscoveryService discoveryService = new SlowDiscoveryService();
+        try {
+            // 服务发现卡住也不阻塞构造
+            DtsSdkClient client = new DtsSdkClient(newConfig(DtsSdkConfig.NotReadyPolicy.HOLD), discoveryService);
+            Assertions.assertFalse(client.isReady());
+            CompletableFuture<ListenEsResponse> future = client.listenEsRow("job", 1L, 5000);
+            Assertions.assertFalse(future.isDone());
+
+            discoveryService.release.countDown();
+            Assertions.assertSame(client, client.readiness().get(5, TimeUnit.SECONDS));
+            discoveryService.getClientList().get(0).send(MockDiscoveryService.newDml("job", 1L));
+            Assertions.assertEquals(1, future.get(5, TimeUnit.SECONDS).getHitList().size());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void failFast() throws Exception {
+        SlowDiscoveryService discoveryService = new SlowDiscoveryService();
+        try {
+            DtsSdkClient client = new DtsSdkClient(newConfig(DtsSdkConfig.NotReadyPolicy.FAIL_FAST), discoveryService);
+            CompletableFuture<ListenEsResponse> future = client.listenEsRows("job", Arrays.asList(1L, 2L), 5000);
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, future::get);
+            Assertions.assertSame(DtsSdkClient.NOT_READY_EXCEPTION, e.getCause());
+            Assertions.assertEquals(0, client.getListenerCount());
+
+            discoveryService.release.countDown();
+            client.readiness().get(5, TimeUnit.SECONDS);
+            CompletableFuture<ListenEsResponse> ready = client.listenEsRow("job", 2L, 5000);
+            discoveryService.getClientList().get(0).send(MockDiscoveryService.newDml("job", 2L));
+            Assertions.assertEquals(1, ready.get(5, TimeUnit.SECONDS).getHitList().size());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    private static class SlowDiscoveryService extends MockDiscoveryService {
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private SlowDiscoveryService() {
+            super(1);
+        }
+
+        @Override
+        public void registerSdkInstance() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.client.YamlDiscoveryService;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AwaitWatermarkTest {
+
+    private static EsDmlDTO newDml(long es) {
+        EsDmlDTO dml = MockDiscoveryService.newDml("job", es);
+        dml.setEs(es);
+        return dml;
+    }
+
+    private static void awaitWatermark(DtsSdkClient client, long watermark) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getWatermark() < watermark && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assertions.assertEquals(watermark, client.getWatermark());
+    }
+
+    /**
+     * 两个服务端，各一个dump流
+     */
+    private static DtsSdkConfig newConfig(StubDtsServer server1, StubDtsServer server2) {
+        DtsSdkConfig config = server1.newConfig();
+        List<DtsSdkConfig.DtsServer> dtsServerList = new ArrayList<>(config.getCluster().getYaml().getDtsServer());
+        dtsServerList.add(server2.newConfig().getCluster().getYaml().getDtsServer().get(0));
+        config.getCluster().getYaml().setDtsServer(dtsServerList);
+        return config;
+    }
+
+    @Test
+    public void completeImmediately() throws Exception {
+        try (StubDtsServer server1 = StubDtsServer.start(); StubDtsServer server2 = StubDtsServer.start()) {
+            DtsSdkConfig config = newConfig(server1, server2);
+            DtsSdkClient client = new DtsSdkClient(config, server1.newDiscoveryService(config));
+            try {
+                Assertions.assertTrue(server1.awaitConnection(1, 5000));
+                Assertions.assertTrue(server2.awaitConnection(1, 5000));
+                server1.send(newDml(1000L));
+                server2.send(newDml(1000L));
+                awaitWatermark(client, 1000L);
+
+                CompletableFuture<Long> future = client.awaitWatermark(500L, 5000);
+                Assertions.assertTrue(future.isDone());
+                Assertions.assertEquals(1000L, future.get());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void completeOnSlowestStream() throws Exception {
+        try (StubDtsServer server1 = StubDtsServer.start(); StubDtsServer server2 = StubDtsServer.start()) {
+            DtsSdkConfig config = newConfig(server1, server2);
+            DtsSdkClient client = new DtsSdkClient(config, server1.newDiscoveryService(config));
+            try {
+                Assertions.assertTrue(server1.awaitConnection(1, 5000));
+                Assertions.assertTrue(server2.awaitConnection(1, 5000));
+                server1.send(newDml(1000L));
+                server2.send(newDml(1000L));
+                awaitWatermark(client, 1000L);
+
+                CompletableFuture<Long> future = client.awaitWatermark(2000L, 5000);
+                // 只有一个流前进，最低水位不变
+                server1.send(newDml(3000L));
+                Thread.sleep(100);
+                Assertions.assertFalse(future.isDone());
+
+                server2.send(newDml(2500L));
+                Assertions.assertEquals(2500L, future.get(5, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void completeOnSlowestStreamExit() throws Exception {
+        try (StubDtsServer server1 = StubDtsServer.start(); StubDtsServer server2 = StubDtsServer.start()) {
+            DtsSdkConfig config = newConfig(server1, server2);
+            YamlDiscoveryService discoveryService = server1.newDiscoveryService(config);
+            DtsSdkClient client = new DtsSdkClient(config, discoveryService);
+            try {
+                Assertions.assertTrue(server1.awaitConnection(1, 5000));
+                Assertions.assertTrue(server2.awaitConnection(1, 5000));
+                server1.send(newDml(3000L));
+                server2.send(newDml(1000L));
+                awaitWatermark(client, 1000L);
+
+                CompletableFuture<Long> future = client.awaitWatermark(2000L, 5000);
+                Assertions.assertFalse(future.isDone());
+
+                // 删除最慢的服务端，dump线程读到下一条数据后退出，剩下的流已经到达
+                config.getCluster().getYaml().setDtsServer(Collections.singletonList(config.getCluster().getYaml().getDtsServer().get(0)));
+                discoveryService.refresh();
+                server2.send(newDml(1000L));
+                Assertions.assertEquals(3000L, future.get(5, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        try (StubDtsServer server = StubDtsServer.start()) {
+            DtsSdkConfig config = server.newConfig();
+            DtsSdkClient client = new DtsSdkClient(config, server.newDiscoveryService(config));
+            try {
+                Assertions.assertTrue(server.awaitConnection(1, 5000));
+                server.send(newDml(1000L));
+                awaitWatermark(client, 1000L);
+
+                CompletableFuture<Long> future = client.awaitWatermark(2000L, 50);
+                ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(TimeoutException.class, e.getCause());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
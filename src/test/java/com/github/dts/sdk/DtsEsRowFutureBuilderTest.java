@@ -0,0 +1,169 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DtsEsRowFutureBuilderTest {
+
+    @Test
+    public void stressBuild() throws Exception {
+        int serverCount = 4;
+        int builderCount = 5000;
+        int keyCount = 5;
+        MockDiscoveryService discoveryService = new MockDiscoveryService(serverCount);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), serverCount);
+        List<MockDiscoveryService.MockServerInstanceClient> streamList = discoveryService.getClientList();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicLong idGenerator = new AtomicLong();
+        try {
+            List<Future<CompletableFuture<ListenEsResponse>>> list = new ArrayList<>(builderCount);
+            for (int i = 0; i < builderCount; i++) {
+                list.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    DtsEsRowFutureBuilder builder = DtsEsRowFutureBuilder.builder(client, 30000, "job");
+                    List<Long> idList = new ArrayList<>(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        long id = idGenerator.incrementAndGet();
+                        idList.add(id);
+                        builder.addPrimaryKey(id);
+                    }
+                    // 事件分散到多个流，一部分在build之前到达
+                    boolean sendBeforeBuild = random.nextBoolean();
+                    if (sendBeforeBuild) {
+                        send(streamList, idList);
+                    }
+                    CompletableFuture<ListenEsResponse> future = builder.build();
+                    if (!sendBeforeBuild) {
+                        send(streamList, idList);
+                    }
+                    return future;
+                }));
+            }
+            for (Future<CompletableFuture<ListenEsResponse>> future : list) {
+                ListenEsResponse response = future.get().get(30, TimeUnit.SECONDS);
+                Assertions.assertEquals(keyCount, response.getHitList().size());
+                Set<Object> idSet = new HashSet<>();
+                for (EsDmlDTO dml : response.getHitList()) {
+                    idSet.add(dml.getId());
+                }
+                Assertions.assertEquals(keyCount, idSet.size());
+            }
+            Assertions.assertEquals(0, client.getUnbuiltBuilderCount());
+        } finally {
+            executor.shutdownNow();
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void closeUnbuilt() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        try {
+            CompletableFuture<ListenEsResponse> future;
+            try (DtsEsRowFutureBuilder builder = DtsEsRowFutureBuilder.builder(client, "job")) {
+                builder.addPrimaryKey(1L);
+                Assertions.assertEquals(1, client.getUnbuiltBuilderCount());
+                future = builder.build();
+            }
+            Assertions.assertEquals(0, client.getUnbuiltBuilderCount());
+            discoveryService.getClientList().get(0).send(MockDiscoveryService.newDml("job", 1L));
+            Assertions.assertEquals(1, future.get(5, TimeUnit.SECONDS).getHitList().size());
+
+            DtsEsRowFutureBuilder leak = DtsEsRowFutureBuilder.builder(client, "job");
+            leak.addPrimaryKey(2L);
+            leak.close();
+            Assertions.assertEquals(0, client.getUnbuiltBuilderCount());
+            Assertions.assertThrows(IllegalStateException.class, () -> leak.addPrimaryKey(3L));
+            Assertions.assertThrows(CancellationException.class, () -> leak.build().get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void unionPrimaryKey() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        try {
+            DtsEsRowFutureBuilder builder = DtsEsRowFutureBuilder.builder(client, 5000, "job_tag");
+            builder.addPrimaryKey("job_tag", new Object[]{1L, 10L});
+            // build之前到达
+            stream.send(newUnionDml(1L, 10L));
+            builder.addPrimaryKey("job_tag", new Object[]{1L, 20L});
+            CompletableFuture<ListenEsResponse> future = builder.build();
+            stream.send(newUnionDml(1L, 30L));
+            stream.send(newUnionDml(1L, 20L));
+            ListenEsResponse response = future.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(2, response.getHitList().size());
+            Assertions.assertEquals(Arrays.asList(10L, 20L), Arrays.asList(response.getHitList().get(0).getIds()[1], response.getHitList().get(1).getIds()[1]));
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void mixedTableKey() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        try {
+            DtsEsRowFutureBuilder builder = DtsEsRowFutureBuilder.builder(client, 5000);
+            // 同一个主键：不限表、限表、表名只差大小写，一条事件命中三个
+            builder.addPrimaryKey(1L);
+            builder.addPrimaryKey("job", 1L);
+            builder.addPrimaryKey("JOB", 1L);
+            builder.addPrimaryKey("job", 2L);
+            CompletableFuture<ListenEsResponse> future = builder.build();
+            stream.send(MockDiscoveryService.newDml("job", 1L));
+            stream.send(MockDiscoveryService.newDml("job", 2L));
+            ListenEsResponse response = future.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(2, response.getHitList().size());
+            Assertions.assertEquals(Arrays.asList(1L, 2L), Arrays.asList(response.getHitList().get(0).getIds()[0], response.getHitList().get(1).getIds()[0]));
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    private static EsDmlDTO newUnionDml(long jobId, long tagId) {
+        EsDmlDTO dml = MockDiscoveryService.newDml("job_tag", jobId);
+        dml.setPkNames(Arrays.asList("job_id", "tag_id"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("job_id", jobId);
+        data.put("tag_id", tagId);
+        dml.setData(data);
+        return dml;
+    }
+
+    @Test
+    public void lookbackByTable() {
+        RecentEventIndex index = new RecentEventIndex(100, 60000L);
+        long sequence = index.open();
+        long now = System.currentTimeMillis();
+        index.add(1L, MockDiscoveryService.newDml("job", 1L), now);
+        index.add(2L, MockDiscoveryService.newDml("user", 1L), now);
+        Collection<String> keys = Collections.singletonList(Filters.rowKey(new Object[]{1L}));
+
+        List<RecentEventIndex.Entry> jobList = index.lookup(keys, sequence, Collections.singleton("job"));
+        Assertions.assertEquals(1, jobList.size());
+        Assertions.assertEquals("job", jobList.get(0).dml.getTableName());
+        Assertions.assertEquals(2, index.lookup(keys, sequence, null).size());
+        Assertions.assertEquals(0, index.lookup(keys, sequence, Collections.singleton("order")).size());
+        index.close();
+        Assertions.assertEquals(0, index.size());
+    }
+
+    private static void send(List<MockDiscoveryService.MockServerInstanceClient> streamList, List<Long> idList) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Long id : idList) {
+            streamList.get(random.nextInt(streamList.size())).send(MockDiscoveryService.newDml("job", id));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.github.dts.sdk.Filters.column;
+import static com.github.dts.sdk.Filters.query;
+
+public class FiltersTest {
+
+    static EsDmlDTO newUpdate(String tableName, Object id, String status, String oldStatus) {
+        EsDmlDTO dml = MockDiscoveryService.newDml(tableName, id);
+        dml.setType("UPDATE");
+        dml.getData().put("status", status);
+        if (oldStatus != null) {
+            Map<String, Object> old = new HashMap<>();
+            old.put("status", oldStatus);
+            dml.setOld(old);
+        }
+        return dml;
+    }
+
+    static EsDmlDTO.Dependent newDependent(String esIndex, boolean effect) {
+        EsDmlDTO.Dependent dependent = new EsDmlDTO.Dependent();
+        dependent.setEsIndex(esIndex);
+        dependent.setEffect(effect);
+        return dependent;
+    }
+
+    @Test
+    public void columnCondition() {
+        // status: DRAFT -> PUBLISHED
+        EsDmlDTO publish = newUpdate("job", 1L, "PUBLISHED", "DRAFT");
+        // 没有修改status
+        EsDmlDTO touch = newUpdate("job", 1L, "PUBLISHED", null);
+
+        Assertions.assertTrue(column("status").eq("PUBLISHED").test(1L, publish));
+        Assertions.assertTrue(column("status").eq("PUBLISHED").test(1L, touch));
+        Assertions.assertFalse(column("status").eq("DRAFT").test(1L, publish));
+        Assertions.assertFalse(column("missing").eq(null).test(1L, publish));
+
+        Assertions.assertTrue(column("status").in("DRAFT", "PUBLISHED").test(1L, publish));
+        Assertions.assertTrue(column("status").in(Arrays.asList("CLOSED", "PUBLISHED")).test(1L, touch));
+        Assertions.assertFalse(column("status").in("DRAFT", "CLOSED").test(1L, publish));
+
+        Assertions.assertTrue(column("status").changedFrom("DRAFT").test(1L, publish));
+        Assertions.assertFalse(column("status").changedFrom("PUBLISHED").test(1L, publish));
+        Assertions.assertFalse(column("status").changedFrom("DRAFT").test(1L, touch));
+
+        Assertions.assertTrue(column("status").changedTo("PUBLISHED").test(1L, publish));
+        Assertions.assertFalse(column("status").changedTo("DRAFT").test(1L, publish));
+        Assertions.assertFalse(column("status").changedTo("PUBLISHED").test(1L, touch));
+
+        Assertions.assertTrue(column("status").changed().test(1L, publish));
+        Assertions.assertFalse(column("status").changed().test(1L, touch));
+        Assertions.assertFalse(column("id").changed().test(1L, publish));
+
+        // 值统一按字符串比较
+        Assertions.assertTrue(column("id").eq("1").test(1L, publish));
+        Assertions.assertTrue(column("id").in(1L, 2L).test(1L, publish));
+    }
+
+    @Test
+    public void primaryKeyWhere() {
+        EsDmlDTO publish = newUpdate("job", 1L, "PUBLISHED", "DRAFT");
+        Assertions.assertTrue(Filters.primaryKey("JOB", 1L).where(column("status").changedTo("PUBLISHED")).test(1L, publish));
+        Assertions.assertFalse(Filters.primaryKey("job", 1L).where(column("status").changedTo("CLOSED")).test(1L, publish));
+        Assertions.assertFalse(Filters.primaryKey("job", 2L).where(column("status").changedTo("PUBLISHED")).test(1L, publish));
+        Assertions.assertFalse(Filters.primaryKey("user", 1L).test(1L, publish));
+    }
+
+    @Test
+    public void queryDsl() {
+        EsDmlDTO publish = newUpdate("job", 1L, "PUBLISHED", "DRAFT");
+        publish.setAdapterName("es1");
+        publish.setDependents(Arrays.asList(newDependent("job_index", false), newDependent("job_search", true)));
+
+        Assertions.assertTrue(query().test(1L, publish));
+        Assertions.assertTrue(query().table("JOB").primaryKey(1L).type("update").adapterName("es1")
+                .esIndex("job_index").where(column("status").changedTo("PUBLISHED")).test(1L, publish));
+        Assertions.assertFalse(query().table("user").test(1L, publish));
+        Assertions.assertFalse(query().primaryKeys(Arrays.asList(2L, 3L)).test(1L, publish));
+        Assertions.assertFalse(query().type("INSERT", "DELETE").test(1L, publish));
+        Assertions.assertFalse(query().adapterName("es2").test(1L, publish));
+        Assertions.assertFalse(query().esIndex("user_index").test(1L, publish));
+        Assertions.assertFalse(query().table("job").where(column("status").changedFrom("CLOSED")).test(1L, publish));
+
+        // effect：只看实际写入的索引
+        Assertions.assertTrue(query().effect().test(1L, publish));
+        Assertions.assertTrue(query().esIndex("job_search").effect().test(1L, publish));
+        Assertions.assertFalse(query().esIndex("job_index").effect().test(1L, publish));
+        publish.setDependents(Collections.singletonList(newDependent("job_index", false)));
+        Assertions.assertFalse(query().effect().test(1L, publish));
+
+        // 不可变，追加条件返回新对象
+        Filters.Query table = query().table("job");
+        Filters.Query typed = table.type("INSERT");
+        Assertions.assertNull(table.getTypes());
+        Assertions.assertNotSame(table, typed);
+        Assertions.assertEquals(1, table.rowCount());
+        Assertions.assertEquals(2, table.primaryKeys(Arrays.asList(1L, 2L)).rowCount());
+    }
+
+    @Test
+    public void queryUnionPrimaryKey() {
+        EsDmlDTO dml = MockDiscoveryService.newDml("job_tag", 1L);
+        dml.setPkNames(Arrays.asList("job_id", "tag_id"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("job_id", 1L);
+        data.put("tag_id", 10L);
+        dml.setData(data);
+
+        Assertions.assertEquals("1-10", Filters.rowKey(dml.getIds()));
+        Assertions.assertTrue(query().primaryKey(new Object[]{1L, 10L}).test(1L, dml));
+        Assertions.assertFalse(query().primaryKey(new Object[]{1L, 20L}).test(1L, dml));
+        Assertions.assertTrue(Filters.unionPrimaryKey("job_tag", new Object[]{1L, 10L}).test(1L, dml));
+        Assertions.assertEquals(Collections.singleton("1-10"), Filters.unionPrimaryKey("job_tag", new Object[]{1L, 10L}).primaryKeyStrings());
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class LagHistogramTest {
+
+    @Test
+    public void bucket() {
+        for (long value = 0; value < 1_000_000; value++) {
+            int index = LagHistogram.index(value);
+            Assertions.assertTrue(LagHistogram.upperBound(index) >= value);
+            Assertions.assertTrue(index == 0 || LagHistogram.upperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void percentileAndDecay() {
+        LagHistogram histogram = new LagHistogram();
+        Assertions.assertEquals(-1, histogram.percentile(0.99));
+        for (int i = 0; i < 990; i++) {
+            histogram.record(50);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(3000);
+        }
+        long p50 = histogram.percentile(0.5);
+        long p999 = histogram.percentile(0.999);
+        Assertions.assertTrue(p50 >= 50 && p50 < 50 * 1.25, "p50=" + p50);
+        Assertions.assertTrue(p999 >= 3000 && p999 < 3000 * 1.25, "p999=" + p999);
+
+        histogram.decay();
+        Assertions.assertEquals(500, histogram.count());
+    }
+
+    @Test
+    public void adaptivePolicy() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        try {
+            TimeoutPolicy policy = TimeoutPolicy.adaptive(client, 0.99, 2, 200, 10000, 10, 2000);
+            Assertions.assertEquals(2000, policy.timeout("job"));
+            CompletableFuture<ListenEsResponse> last = null;
+            for (int i = 0; i < 20; i++) {
+                EsDmlDTO dml = MockDiscoveryService.newDml("job", i);
+                dml.setEs(System.currentTimeMillis() - 1000);
+                last = client.listenEsRow("job", i, 5000);
+                discoveryService.getClientList().get(0).send(dml);
+            }
+            EsDmlLag lag = last.get(5, TimeUnit.SECONDS).getLagList().get(0);
+            Assertions.assertTrue(lag.getEndToEnd() >= 1000);
+            Assertions.assertTrue(lag.getCompleteMicros() >= 0);
+            Assertions.assertTrue(client.getStageLagHistogram(LagStage.END_TO_END).count() > 0);
+            long timeout = policy.timeout("JOB");
+            Assertions.assertTrue(timeout >= 2000 && timeout < 2000 * 1.25 + 100, "timeout=" + timeout);
+            // 没有样本的表
+            Assertions.assertEquals(2000, policy.timeout("user"));
+        } finally {
+            discoveryService.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ListenEsRowsPartialTest {
+
+    @Test
+    public void partialOnTimeout() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        try {
+            CompletableFuture<ListenEsResponse> future = client.listenEsRowsPartial("job", Arrays.asList(3L, 4L, 5L), 200);
+            stream.send(MockDiscoveryService.newDml("job", 3L));
+            stream.send(MockDiscoveryService.newDml("job", 5L));
+            ListenEsResponse response = future.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(response.isTimeout());
+            Assertions.assertEquals(2, response.getHitList().size());
+            Assertions.assertEquals(Collections.singletonList("4"), new ArrayList<>(response.getMissKeys()));
+            Assertions.assertTrue(response.getCost() >= 200);
+
+            CompletableFuture<ListenEsResponse> done = client.listenEsRowsPartial("job", Collections.singletonList(6L), 5000);
+            stream.send(MockDiscoveryService.newDml("job", 6L));
+            ListenEsResponse doneResponse = done.get(5, TimeUnit.SECONDS);
+            Assertions.assertFalse(doneResponse.isTimeout());
+            Assertions.assertTrue(doneResponse.getMissKeys().isEmpty());
+        } finally {
+            discoveryService.close();
+        }
+    }
+}
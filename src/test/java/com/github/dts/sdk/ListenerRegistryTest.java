@@ -0,0 +1,126 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static com.github.dts.sdk.Filters.column;
+import static com.github.dts.sdk.Filters.query;
+
+public class ListenerRegistryTest {
+
+    private static ListenerRegistry.Attribute attribute(ListenerRegistry.Index index) {
+        return index == null ? null : index.attribute;
+    }
+
+    private static ListenEs[] select(ListenerRegistry registry, EsDmlDTO dml) {
+        return registry.select(dml, Filters.rowKey(dml.getIds()));
+    }
+
+    private static EsDmlDTO newDml(String tableName, Object id) {
+        EsDmlDTO dml = FiltersTest.newUpdate(tableName, id, "PUBLISHED", "DRAFT");
+        dml.setAdapterName("es1");
+        dml.setDependents(Arrays.asList(FiltersTest.newDependent("job_index", false), FiltersTest.newDependent("job_search", true)));
+        return dml;
+    }
+
+    @Test
+    public void indexOf() {
+        Filters.Query query = query().type("UPDATE");
+        Assertions.assertEquals(ListenerRegistry.Attribute.TYPE, attribute(ListenerRegistry.indexOf(query)));
+        query = query.adapterName("es1");
+        Assertions.assertEquals(ListenerRegistry.Attribute.ADAPTER, attribute(ListenerRegistry.indexOf(query)));
+        query = query.esIndex("job_index");
+        Assertions.assertEquals(ListenerRegistry.Attribute.ES_INDEX, attribute(ListenerRegistry.indexOf(query)));
+        Assertions.assertEquals(ListenerRegistry.Attribute.EFFECT_ES_INDEX, attribute(ListenerRegistry.indexOf(query.effect())));
+        query = query.table("job");
+        Assertions.assertEquals(ListenerRegistry.Attribute.TABLE, attribute(ListenerRegistry.indexOf(query)));
+        query = query.primaryKeys(Arrays.asList(1L, 2L));
+        ListenerRegistry.Index index = ListenerRegistry.indexOf(query);
+        Assertions.assertEquals(ListenerRegistry.Attribute.PRIMARY_KEY, attribute(index));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("1", "2")), new HashSet<>(index.values));
+
+        Assertions.assertEquals(ListenerRegistry.Attribute.PRIMARY_KEY, attribute(ListenerRegistry.indexOf(Filters.primaryKey("job", 1L))));
+        Assertions.assertEquals(ListenerRegistry.Attribute.PRIMARY_KEY, attribute(ListenerRegistry.indexOf(Filters.unionPrimaryKey("job_tag", new Object[]{1L, 10L}))));
+        // 没有可索引的条件
+        Assertions.assertNull(ListenerRegistry.indexOf(query()));
+        Assertions.assertNull(ListenerRegistry.indexOf(query().where(column("status").eq("PUBLISHED"))));
+        Assertions.assertNull(ListenerRegistry.indexOf((messageId, dml) -> true));
+    }
+
+    @Test
+    public void select() {
+        ListenerRegistry registry = new ListenerRegistry();
+        TestListenEs primaryKey = new TestListenEs();
+        TestListenEs table = new TestListenEs();
+        TestListenEs esIndex = new TestListenEs();
+        TestListenEs effectEsIndex = new TestListenEs();
+        TestListenEs adapter = new TestListenEs();
+        TestListenEs type = new TestListenEs();
+        TestListenEs other = new TestListenEs();
+        registry.add(primaryKey, ListenerRegistry.indexOf(query().primaryKey(1L)));
+        registry.add(table, ListenerRegistry.indexOf(query().table("JOB")));
+        registry.add(esIndex, ListenerRegistry.indexOf(query().esIndex("job_index", "job_search")));
+        registry.add(effectEsIndex, ListenerRegistry.indexOf(query().esIndex("job_index").effect()));
+        registry.add(adapter, ListenerRegistry.indexOf(query().adapterName("es1")));
+        registry.add(type, ListenerRegistry.indexOf(query().type("update")));
+        registry.add(other, null);
+        Assertions.assertEquals(7, registry.size());
+
+        // 一条事件影响多个索引，esIndex的listener只出现一次；job_index没有实际写入，effectEsIndex不派发
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(primaryKey, table, esIndex, adapter, type, other)),
+                asSet(select(registry, newDml("job", 1L))));
+        Assertions.assertEquals(6, select(registry, newDml("job", 1L)).length);
+
+        // 不能索引的listener收到全部事件
+        EsDmlDTO user = MockDiscoveryService.newDml("user", 2L);
+        Assertions.assertEquals(Collections.singleton(other), asSet(select(registry, user)));
+    }
+
+    @Test
+    public void remove() {
+        ListenerRegistry registry = new ListenerRegistry();
+        TestListenEs primaryKey = new TestListenEs();
+        TestListenEs filter = new TestListenEs();
+        TestListenEs other = new TestListenEs();
+        registry.add(primaryKey, ListenerRegistry.Index.primaryKey(Collections.singletonList("1")));
+        registry.addKeys(primaryKey, Collections.singletonList("2"));
+        registry.add(filter, ListenerRegistry.indexOf(Filters.primaryKey("job", 2L)));
+        registry.add(other, null);
+        Assertions.assertEquals(1 + 2, select(registry, MockDiscoveryService.newDml("job", 2L)).length);
+
+        // 立即移除，包括追加的主键
+        Assertions.assertTrue(registry.remove(primaryKey));
+        Assertions.assertFalse(registry.remove(primaryKey));
+        Assertions.assertEquals(2, registry.size());
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(filter, other)), asSet(select(registry, MockDiscoveryService.newDml("job", 2L))));
+
+        // 完成之后定时清理
+        filter.done = true;
+        other.done = true;
+        registry.removeDone();
+        Assertions.assertTrue(registry.isEmpty());
+        Assertions.assertEquals(0, select(registry, MockDiscoveryService.newDml("job", 1L)).length);
+    }
+
+    private static HashSet<ListenEs> asSet(ListenEs[] array) {
+        return new HashSet<>(Arrays.asList(array));
+    }
+
+    private static class TestListenEs implements ListenEs {
+        private boolean done;
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void onEvent(Long messageId, EsDmlDTO dml) {
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ListenerReleaseTest {
+
+    @Test
+    public void releaseOnDone() throws Exception {
+        DtsSdkConfig config = new DtsSdkConfig();
+        // 不依赖定时清理
+        config.setClearDoneInterval(Integer.MAX_VALUE);
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(config, discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        BlockingQueue<Runnable> scheduledQueue = ((ScheduledThreadPoolExecutor) client.getScheduled()).getQueue();
+        int scheduledCount = scheduledQueue.size();
+        try {
+            // 取消
+            CompletableFuture<ListenEsResponse> cancel = client.listenEsRow("job", 1L, 60000);
+            CompletableFuture<ListenEsResponse> cancelRows = client.listenEsRows("job", Arrays.asList(1L, 2L), 60000);
+            Assertions.assertEquals(2, client.getListenerCount());
+            cancel.cancel(false);
+            cancelRows.cancel(false);
+            Assertions.assertEquals(0, client.getListenerCount());
+            Assertions.assertEquals(scheduledCount, scheduledQueue.size());
+
+            // 超时
+            CompletableFuture<ListenEsResponse> timeout = client.listenEsRows("job", Arrays.asList(3L, 4L), 50);
+            Assertions.assertThrows(ExecutionException.class, timeout::get);
+            awaitListenerCount(client, 0);
+
+            // 正常完成，合并的监听也一起注销
+            CompletableFuture<ListenEsResponse> hit1 = client.listenEsRow("job", 5L, 60000);
+            CompletableFuture<ListenEsResponse> hit2 = client.listenEsRow("job", 5L, 60000);
+            Assertions.assertEquals(1, client.getListenerCount());
+            stream.send(MockDiscoveryService.newDml("job", 5L));
+            Assertions.assertEquals(1, hit1.get(5, TimeUnit.SECONDS).getHitList().size());
+            Assertions.assertEquals(1, hit2.get(5, TimeUnit.SECONDS).getHitList().size());
+            awaitListenerCount(client, 0);
+            Assertions.assertEquals(scheduledCount, scheduledQueue.size());
+
+            // builder超时
+            DtsEsRowFutureBuilder builder = DtsEsRowFutureBuilder.builder(client, 50, "job");
+            builder.addPrimaryKey(6L);
+            builder.addPrimaryKey(7L);
+            Assertions.assertThrows(ExecutionException.class, () -> builder.build().get());
+            awaitListenerCount(client, 0);
+
+            // 订阅取消
+            AtomicReference<Subscription> subscriptionRef = new AtomicReference<>();
+            client.subscribe(Filters.query().table("job")).subscribe(new Subscriber<EsDmlDTO>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscriptionRef.set(s);
+                }
+
+                @Override
+                public void onNext(EsDmlDTO esDmlDTO) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            Assertions.assertEquals(1, client.getListenerCount());
+            subscriptionRef.get().cancel();
+            Assertions.assertEquals(0, client.getListenerCount());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void subscribeTerminate() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        try {
+            // 队列满时onError并注销
+            CompletableFuture<Throwable> overflow = new CompletableFuture<>();
+            client.subscribe(Filters.query().table("job"), 1, EsDmlPublisher.OverflowStrategy.ERROR)
+                    .subscribe(new TestSubscriber(0, new CompletableFuture<>(), overflow));
+            stream.send(MockDiscoveryService.newDml("job", 1L));
+            stream.send(MockDiscoveryService.newDml("job", 2L));
+            Assertions.assertTrue(overflow.get(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+            awaitListenerCount(client, 0);
+
+            // 关闭client时把剩下的事件出队后onComplete
+            CompletableFuture<Integer> complete = new CompletableFuture<>();
+            TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE, complete, new CompletableFuture<>());
+            client.subscribe(Filters.query().table("job")).subscribe(subscriber);
+            stream.send(MockDiscoveryService.newDml("job", 3L));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (subscriber.count.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            client.close();
+            Assertions.assertEquals(1, complete.get(5, TimeUnit.SECONDS));
+            awaitListenerCount(client, 0);
+
+            // 关闭后订阅直接onComplete
+            CompletableFuture<Integer> closed = new CompletableFuture<>();
+            client.subscribe(Filters.query().table("job")).subscribe(new TestSubscriber(Long.MAX_VALUE, closed, new CompletableFuture<>()));
+            Assertions.assertEquals(0, closed.get(5, TimeUnit.SECONDS));
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void coalesceTimeout() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        MockDiscoveryService.MockServerInstanceClient stream = discoveryService.getClientList().get(0);
+        Locale locale = Locale.getDefault();
+        try {
+            // 土耳其语下"I".toLowerCase()是"ı"，合并的key不能依赖默认locale
+            Locale.setDefault(new Locale("tr", "TR"));
+            CompletableFuture<CompletableFuture<ListenEsResponse>> shortCall = CompletableFuture.supplyAsync(() -> client.listenEsRow("JOB_ITEM", 1L, 50));
+            CompletableFuture<CompletableFuture<ListenEsResponse>> longCall = CompletableFuture.supplyAsync(() -> client.listenEsRow("job_item", 1L, 60000));
+            CompletableFuture<ListenEsResponse> shortWait = shortCall.get(5, TimeUnit.SECONDS);
+            CompletableFuture<ListenEsResponse> longWait = longCall.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, client.getListenerCount());
+
+            // 各自超时，先超时的不影响另一个
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> shortWait.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(TimeoutException.class, e.getCause());
+            Assertions.assertFalse(longWait.isDone());
+            Assertions.assertEquals(1, client.getListenerCount());
+
+            stream.send(MockDiscoveryService.newDml("job_item", 1L));
+            Assertions.assertEquals(1, longWait.get(5, TimeUnit.SECONDS).getHitList().size());
+            awaitListenerCount(client, 0);
+        } finally {
+            Locale.setDefault(locale);
+            discoveryService.close();
+        }
+    }
+
+    private static class TestSubscriber implements Subscriber<EsDmlDTO> {
+        private final long request;
+        private final CompletableFuture<Integer> complete;
+        private final CompletableFuture<Throwable> error;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private TestSubscriber(long request, CompletableFuture<Integer> complete, CompletableFuture<Throwable> error) {
+            this.request = request;
+            this.complete = complete;
+            this.error = error;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (request > 0) {
+                s.request(request);
+            }
+        }
+
+        @Override
+        public void onNext(EsDmlDTO esDmlDTO) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error.complete(t);
+        }
+
+        @Override
+        public void onComplete() {
+            complete.complete(count.get());
+        }
+    }
+
+    private static void awaitListenerCount(DtsSdkClient client, int count) throws InterruptedException {
+        // 完成回调在完成的线程里执行，get返回时可能还没执行完
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.getListenerCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assertions.assertEquals(count, client.getListenerCount());
+    }
+}
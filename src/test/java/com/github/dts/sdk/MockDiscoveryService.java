@@ -0,0 +1,140 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.client.DiscoveryService;
+import com.github.dts.sdk.client.SdkInstance;
+import com.github.dts.sdk.client.ServerInstance;
+import com.github.dts.sdk.client.ServerInstanceClient;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import com.github.dts.sdk.util.ReferenceCounted;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不连网络的服务发现，每个MockServerInstanceClient模拟一个DTS服务端流
+ */
+public class MockDiscoveryService implements DiscoveryService {
+    private final ReferenceCounted<List<ServerInstanceClient>> serverListRef;
+    private final List<MockServerInstanceClient> clientList = new ArrayList<>();
+    private final List<ServerListener> serverListenerList = new CopyOnWriteArrayList<>();
+    private int updateInstanceCount;
+
+    public MockDiscoveryService(int serverCount) {
+        for (int i = 0; i < serverCount; i++) {
+            clientList.add(new MockServerInstanceClient(i));
+        }
+        this.serverListRef = new ReferenceCounted<>(new CopyOnWriteArrayList<>(clientList));
+    }
+
+    public static EsDmlDTO newDml(String tableName, Object id) {
+        EsDmlDTO dml = new EsDmlDTO();
+        dml.setTableName(tableName);
+        dml.setDatabase("test");
+        dml.setPkNames(Collections.singletonList("id"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        dml.setData(data);
+        dml.setType("INSERT");
+        long now = System.currentTimeMillis();
+        dml.setEs(now);
+        dml.setTs(now);
+        return dml;
+    }
+
+    public static DtsSdkClient awaitDump(DtsSdkClient client, int dumpCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getDumpCount() < dumpCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return client;
+    }
+
+    public List<MockServerInstanceClient> getClientList() {
+        return clientList;
+    }
+
+    /**
+     * 模拟服务发现删除了一个服务端
+     */
+    public void remove(MockServerInstanceClient client) {
+        serverListRef.get().remove(client);
+        client.close();
+        ServerChangeEvent<ServerInstanceClient> event = new ServerChangeEvent<>(++updateInstanceCount,
+                Collections.emptyList(), Collections.singletonList(client));
+        for (ServerListener listener : serverListenerList) {
+            listener.onChange(event);
+        }
+    }
+
+    public void close() {
+        for (MockServerInstanceClient client : clientList) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void registerSdkInstance() {
+
+    }
+
+    @Override
+    public ReferenceCounted<List<ServerInstanceClient>> getServerListRef() {
+        return serverListRef.open();
+    }
+
+    @Override
+    public void addServerListener(ServerListener serverListener) {
+        serverListenerList.add(serverListener);
+    }
+
+    public static class MockServerInstanceClient extends ServerInstanceClient {
+        private static final EsDmlDTO CLOSE = new EsDmlDTO();
+        private final BlockingQueue<EsDmlDTO> queue = new LinkedBlockingQueue<>();
+        private final AtomicLong messageId = new AtomicLong();
+
+        public MockServerInstanceClient(int index) {
+            super(true, new SdkInstance(), newServerInstance(index), new DtsSdkConfig.ClusterConfig());
+        }
+
+        private static ServerInstance newServerInstance(int index) {
+            ServerInstance instance = new ServerInstance();
+            instance.setIp("127.0.0.1");
+            instance.setPort(10000 + index);
+            instance.setAccount("mock" + index);
+            return instance;
+        }
+
+        public void send(EsDmlDTO dml) {
+            queue.add(dml);
+        }
+
+        @Override
+        public void dump(DumpListener listener, long retrySleep, int maxRetry) {
+            listener.onConnect();
+            while (true) {
+                EsDmlDTO dml;
+                try {
+                    dml = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (dml == CLOSE) {
+                    return;
+                }
+                if (dml != null) {
+                    listener.onEvent(messageId.incrementAndGet(), dml);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            queue.add(CLOSE);
+        }
+    }
+}
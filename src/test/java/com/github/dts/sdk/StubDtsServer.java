@@ -0,0 +1,256 @@
+package com.github.dts.sdk;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dts.sdk.client.YamlDiscoveryService;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import com.github.dts.sdk.util.EsDmlDTO;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * 本地的/dts/sdk/subscriber，输出和DTS服务端相同的SSE格式，不需要真实的DTS服务端。
+ * 支持按速率回放或生成es-dml事件，支持主动断开连接，用来测试DtsSdkClient的吞吐、延迟和重连。
+ * <pre>
+ * try (StubDtsServer server = StubDtsServer.start()) {
+ *     DtsSdkConfig config = server.newConfig();
+ *     DtsSdkClient client = new DtsSdkClient(config, server.newDiscoveryService(config));
+ *     server.generate(id -&gt; MockDiscoveryService.newDml("job", id), 10000, 1000);
+ * }
+ * </pre>
+ */
+public class StubDtsServer implements Closeable {
+    public static final String ACCOUNT = "stub";
+    public static final String PASSWORD = "stub";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "StubDtsServer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Connection> connectionList = new CopyOnWriteArrayList<>();
+    private final AtomicLong messageId = new AtomicLong();
+    private final AtomicLong sendCount = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+    private volatile long disconnectEvery;
+
+    private StubDtsServer(HttpServer server) {
+        this.server = server;
+        server.createContext("/dts/sdk/subscriber", this::subscriber);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 随机端口
+     */
+    public static StubDtsServer start() throws IOException {
+        return new StubDtsServer(HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0));
+    }
+
+    private static String toJson(EsDmlDTO dml) throws IOException {
+        // 只输出服务端的字段
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("tableName", dml.getTableName());
+        map.put("database", dml.getDatabase());
+        map.put("pkNames", dml.getPkNames());
+        map.put("es", dml.getEs());
+        map.put("ts", dml.getTs());
+        map.put("type", dml.getType());
+        map.put("old", dml.getOld());
+        map.put("data", dml.getData());
+        map.put("dependents", dml.getDependents());
+        map.put("adapterName", dml.getAdapterName());
+        return OBJECT_MAPPER.writeValueAsString(map);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public DtsSdkConfig newConfig() {
+        DtsSdkConfig config = new DtsSdkConfig();
+        config.setRequestRetrySleep(50);
+        DtsSdkConfig.DtsServer dtsServer = new DtsSdkConfig.DtsServer();
+        dtsServer.setIp(server.getAddress().getHostString());
+        dtsServer.setPort(getPort());
+        DtsSdkConfig.ClusterConfig.Yaml yaml = config.getCluster().getYaml();
+        yaml.setDtsServer(Collections.singletonList(dtsServer));
+        yaml.getSdkAccount().setAccount(ACCOUNT);
+        yaml.getSdkAccount().setPassword(PASSWORD);
+        return config;
+    }
+
+    public YamlDiscoveryService newDiscoveryService(DtsSdkConfig config) {
+        return new YamlDiscoveryService(config.getCluster());
+    }
+
+    /**
+     * 等待SDK连上
+     */
+    public boolean awaitConnection(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (connectionList.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public int getConnectionCount() {
+        return connectionList.size();
+    }
+
+    /**
+     * @return 累计建立过的连接数，重连会增加
+     */
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    public long getSendCount() {
+        return sendCount.get();
+    }
+
+    /**
+     * 每发送n条事件断开一次所有连接，0表示不断开
+     */
+    public void setDisconnectEvery(long n) {
+        this.disconnectEvery = n;
+    }
+
+    /**
+     * 断开所有连接，SDK会重连
+     */
+    public void disconnect() {
+        for (Connection connection : connectionList) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 发送给所有连接
+     */
+    public void send(EsDmlDTO dml) throws IOException {
+        String json = toJson(dml);
+        byte[] frame = ("id:" + messageId.incrementAndGet() + "\n" +
+                "event:es-dml\n" +
+                "data:" + json + "\n" +
+                "\n").getBytes(StandardCharsets.UTF_8);
+        for (Connection connection : connectionList) {
+            connection.write(frame);
+        }
+        long count = sendCount.incrementAndGet();
+        long disconnectEvery = this.disconnectEvery;
+        if (disconnectEvery > 0 && count % disconnectEvery == 0) {
+            disconnect();
+        }
+    }
+
+    /**
+     * 按速率回放
+     *
+     * @param eventsPerSecond 小于等于0表示不限速
+     */
+    public Future<?> replay(List<EsDmlDTO> events, int eventsPerSecond) {
+        return generate(i -> events.get((int) i), events.size(), eventsPerSecond);
+    }
+
+    /**
+     * 按速率生成事件
+     *
+     * @param factory 参数是序号，从0开始
+     */
+    public Future<?> generate(LongFunction<EsDmlDTO> factory, long count, int eventsPerSecond) {
+        return executor.submit(() -> {
+            long intervalNanos = eventsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / eventsPerSecond : 0;
+            long start = System.nanoTime();
+            for (long i = 0; i < count; i++) {
+                if (intervalNanos > 0) {
+                    long delay = start + i * intervalNanos - System.nanoTime();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                }
+                send(factory.apply(i));
+            }
+            return null;
+        });
+    }
+
+    private void subscriber(HttpExchange exchange) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String expect = "Basic " + Base64.getEncoder().encodeToString((ACCOUNT + ":" + PASSWORD).getBytes(StandardCharsets.ISO_8859_1));
+        if (!expect.equals(authorization)) {
+            exchange.sendResponseHeaders(401, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream;charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        Connection connection = new Connection(exchange);
+        connectionList.add(connection);
+        connectCount.incrementAndGet();
+        try {
+            connection.closeFuture.get();
+        } catch (InterruptedException | ExecutionException ignored) {
+        } finally {
+            connectionList.remove(connection);
+        }
+    }
+
+    @Override
+    public void close() {
+        disconnect();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static class Connection {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+
+        private Connection(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        synchronized void write(byte[] frame) {
+            if (closeFuture.isDone()) {
+                return;
+            }
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            if (closeFuture.isDone()) {
+                return;
+            }
+            try {
+                exchange.close();
+            } finally {
+                closeFuture.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.dts.sdk;
+
+import com.github.dts.sdk.client.YamlDiscoveryService;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class StubDtsServerTest {
+
+    private static void awaitEventCount(DtsSdkClient client, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (eventCount(client) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assertions.assertEquals(count, eventCount(client));
+    }
+
+    private static long eventCount(DtsSdkClient client) {
+        long count = 0;
+        for (DtsSdkMetrics.StreamMetrics stream : client.getMetrics().getStreams()) {
+            count += stream.getEventCount();
+        }
+        return count;
+    }
+
+    @Test
+    public void listenOverHttp() throws Exception {
+        try (StubDtsServer server = StubDtsServer.start()) {
+            DtsSdkConfig config = server.newConfig();
+            DtsSdkClient client = new DtsSdkClient(config, server.newDiscoveryService(config));
+            Assertions.assertTrue(server.awaitConnection(1, 5000));
+
+            CompletableFuture<ListenEsResponse> future = client.listenEsRow("job", 1L, 5000);
+            server.send(MockDiscoveryService.newDml("job", 1L));
+            ListenEsResponse response = future.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1L, response.getHitList().get(0).getIdLong());
+            // 真实连接会记录收到和解析的时间
+            Assertions.assertTrue(response.getLagList().get(0).getDecodeMicros() >= 0);
+        }
+    }
+
+    @Test
+    public void generateAtRate() throws Exception {
+        try (StubDtsServer server = StubDtsServer.start()) {
+            DtsSdkConfig config = server.newConfig();
+            DtsSdkClient client = new DtsSdkClient(config, server.newDiscoveryService(config));
+            Assertions.assertTrue(server.awaitConnection(1, 5000));
+
+            long start = System.nanoTime();
+            server.generate(id -> MockDiscoveryService.newDml("job", id), 200, 1000).get(10, TimeUnit.SECONDS);
+            long costMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assertions.assertTrue(costMs >= 150, "costMs=" + costMs);
+            awaitEventCount(client, 200);
+        }
+    }
+
+    @Test
+    public void reconnect() throws Exception {
+        try (StubDtsServer server = StubDtsServer.start()) {
+            DtsSdkConfig config = server.newConfig();
+            DtsSdkClient client = new DtsSdkClient(config, server.newDiscoveryService(config));
+            Assertions.assertTrue(server.awaitConnection(1, 5000));
+
+            server.disconnect();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getConnectCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(2, server.getConnectCount());
+            Assertions.assertTrue(server.awaitConnection(1, 5000));
+
+            CompletableFuture<ListenEsResponse> future = client.listenEsRow("job", 2L, 5000);
+            server.send(MockDiscoveryService.newDml("job", 2L));
+            Assertions.assertEquals(1, future.get(5, TimeUnit.SECONDS).getHitList().size());
+            Assertions.assertEquals(1, client.getMetrics().getStreams().iterator().next().getReconnectCount());
+        }
+    }
+
+    @Test
+    public void yamlRefresh() throws Exception {
+        try (StubDtsServer server1 = StubDtsServer.start(); StubDtsServer server2 = StubDtsServer.start()) {
+            DtsSdkConfig config = server1.newConfig();
+            YamlDiscoveryService discoveryService = server1.newDiscoveryService(config);
+            DtsSdkClient client = new DtsSdkClient(config, discoveryService);
+            Assertions.assertTrue(server1.awaitConnection(1, 5000));
+
+            // 配置刷新后增加一个服务端
+            List<DtsSdkConfig.DtsServer> dtsServerList = new ArrayList<>(config.getCluster().getYaml().getDtsServer());
+            dtsServerList.add(server2.newConfig().getCluster().getYaml().getDtsServer().get(0));
+            config.getCluster().getYaml().setDtsServer(dtsServerList);
+            discoveryService.refresh();
+            Assertions.assertTrue(server2.awaitConnection(1, 5000));
+            Assertions.assertEquals(2, discoveryService.getServerListRef().get().size());
+
+            // 删除第一个服务端，不阻塞刷新，dump线程读到下一条数据(相当于心跳)后退出
+            config.getCluster().getYaml().setDtsServer(Collections.singletonList(dtsServerList.get(1)));
+            discoveryService.refresh();
+            Assertions.assertEquals(1, discoveryService.getServerListRef().get().size());
+            server1.send(MockDiscoveryService.newDml("job", 1L));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getDumpCount() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(1, client.getDumpCount());
+
+            CompletableFuture<ListenEsResponse> future = client.listenEsRow("job", 3L, 5000);
+            server2.send(MockDiscoveryService.newDml("job", 3L));
+            Assertions.assertEquals(1, future.get(5, TimeUnit.SECONDS).getHitList().size());
+        }
+    }
+}
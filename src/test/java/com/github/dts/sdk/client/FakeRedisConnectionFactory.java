@@ -0,0 +1,173 @@
+package com.github.dts.sdk.client;
+
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存里的Redis，只实现RedisDiscoveryService用到的命令，统计每个命令的调用次数。
+ * 发布的消息和Redis一样在单独的线程里按顺序投递。
+ */
+public class FakeRedisConnectionFactory {
+    private final Map<String, byte[]> store = new ConcurrentSkipListMap<>();
+    private final Map<String, List<MessageListener>> subscribeMap = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> commandCountMap = new ConcurrentHashMap<>();
+    private final ExecutorService subscribeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "FakeRedisSubscribe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final RedisConnectionFactory factory = (RedisConnectionFactory) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[]{RedisConnectionFactory.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getConnection":
+                        return newConnection();
+                    case "getConvertPipelineAndTxResults":
+                        return true;
+                    default:
+                        return defaultValue(proxy, method, args);
+                }
+            });
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getName();
+            default:
+                break;
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else {
+            return null;
+        }
+    }
+
+    public RedisConnectionFactory getFactory() {
+        return factory;
+    }
+
+    public Map<String, byte[]> getStore() {
+        return store;
+    }
+
+    /**
+     * @param command 小写的方法名，例如 scan, get, mGet
+     */
+    public long getCommandCount(String command) {
+        AtomicLong count = commandCountMap.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    public void resetCommandCount() {
+        commandCountMap.clear();
+    }
+
+    public void publish(String channel, byte[] body) {
+        List<MessageListener> listenerList = subscribeMap.get(channel);
+        if (listenerList == null) {
+            return;
+        }
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        for (MessageListener listener : listenerList) {
+            subscribeExecutor.execute(() -> listener.onMessage(new DefaultMessage(channelBytes, body), null));
+        }
+    }
+
+    /**
+     * 等待已发布的消息都投递完
+     */
+    public void awaitPublish() throws Exception {
+        subscribeExecutor.submit(() -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    public void close() {
+        subscribeExecutor.shutdownNow();
+    }
+
+    private RedisConnection newConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{RedisConnection.class}, (proxy, method, args) -> {
+                    commandCountMap.computeIfAbsent(method.getName(), k -> new AtomicLong()).incrementAndGet();
+                    switch (method.getName()) {
+                        case "scan":
+                            return scan((ScanOptions) args[0]);
+                        case "get":
+                            return store.get(string((byte[]) args[0]));
+                        case "mGet": {
+                            List<byte[]> list = new ArrayList<>();
+                            for (byte[] key : (byte[][]) args[0]) {
+                                list.add(store.get(string(key)));
+                            }
+                            return list;
+                        }
+                        case "set":
+                            store.put(string((byte[]) args[0]), (byte[]) args[1]);
+                            return true;
+                        case "expire":
+                            if ((Long) args[1] <= 0) {
+                                return store.remove(string((byte[]) args[0])) != null;
+                            }
+                            return store.containsKey(string((byte[]) args[0]));
+                        case "publish":
+                            publish(string((byte[]) args[0]), (byte[]) args[1]);
+                            return 1L;
+                        case "subscribe":
+                            for (byte[] channel : (byte[][]) args[1]) {
+                                subscribeMap.computeIfAbsent(string(channel), k -> new CopyOnWriteArrayList<>()).add((MessageListener) args[0]);
+                            }
+                            return null;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cursor<byte[]> scan(ScanOptions options) {
+        String pattern = options.getPattern();
+        String prefix = pattern != null && pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern;
+        List<byte[]> keyList = new ArrayList<>();
+        for (String key : store.keySet()) {
+            if (prefix == null || key.startsWith(prefix)) {
+                keyList.add(key.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Iterator<byte[]> iterator = keyList.iterator();
+        return (Cursor<byte[]>) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{Cursor.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hasNext":
+                            return iterator.hasNext();
+                        case "next":
+                            return iterator.next();
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.dts.sdk.client;
+
+import com.alibaba.nacos.api.naming.NamingService;
+import com.alibaba.nacos.api.naming.listener.EventListener;
+import com.alibaba.nacos.api.naming.listener.NamingEvent;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class NacosDiscoveryServiceTest {
+
+    private static Instance newInstance(int i) {
+        Instance instance = new Instance();
+        instance.setIp("127.0.0.1");
+        // 连不上的端口
+        instance.setPort(1);
+        instance.addMetadata(NacosDiscoveryService.METADATA_ACCOUNT, "account" + i);
+        instance.addMetadata(NacosDiscoveryService.METADATA_PASSWORD, "password" + i);
+        return instance;
+    }
+
+    @Test
+    public void pushChange() {
+        FakeNamingService fake = new FakeNamingService();
+        fake.instanceMap.put("dts-server", Arrays.asList(newInstance(1), newInstance(2)));
+        DtsSdkConfig.ClusterConfig clusterConfig = new DtsSdkConfig.ClusterConfig();
+        clusterConfig.setTestSocketTimeoutMs(10);
+        NacosDiscoveryService service = new NacosDiscoveryService(fake.proxy(), "dts-sdk", "dts-server", "DEFAULT", clusterConfig, "127.0.0.1", 8080);
+        List<DiscoveryService.ServerChangeEvent<ServerInstanceClient>> eventList = new CopyOnWriteArrayList<>();
+        service.addServerListener(new DiscoveryService.ServerListener() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <E extends ServerInstanceClient> void onChange(DiscoveryService.ServerChangeEvent<E> event) {
+                eventList.add((DiscoveryService.ServerChangeEvent<ServerInstanceClient>) event);
+            }
+        });
+        service.registerSdkInstance();
+
+        // SDK自己注册，带上服务端校验用的账号
+        Instance registered = fake.instanceMap.get("dts-sdk").get(0);
+        Assertions.assertEquals(service.getSdkInstance().getAccount(), registered.getMetadata().get(NacosDiscoveryService.METADATA_ACCOUNT));
+        Assertions.assertEquals(2, service.getServerListRef().get().size());
+
+        // 推送：account1下线，account3上线，不健康的忽略
+        Instance unhealthy = newInstance(4);
+        unhealthy.setHealthy(false);
+        int selectCount = fake.selectCount;
+        fake.push("dts-server", Arrays.asList(newInstance(2), newInstance(3), unhealthy));
+        Assertions.assertEquals(selectCount, fake.selectCount);
+        Set<String> accountSet = new TreeSet<>();
+        for (ServerInstanceClient client : service.getServerListRef().get()) {
+            accountSet.add(client.getAccount());
+        }
+        Assertions.assertEquals(new TreeSet<>(Arrays.asList("account2", "account3")), accountSet);
+        DiscoveryService.ServerChangeEvent<ServerInstanceClient> event = eventList.get(eventList.size() - 1);
+        Assertions.assertEquals("account3", event.insertList.get(0).getAccount());
+        Assertions.assertEquals("account1", event.deleteList.get(0).getAccount());
+
+        service.destroy();
+        Assertions.assertTrue(fake.instanceMap.get("dts-sdk").isEmpty());
+        Assertions.assertTrue(fake.listenerMap.get("dts-server").isEmpty());
+    }
+
+    /**
+     * 进程内的NamingService，只实现NacosDiscoveryService用到的方法
+     */
+    private static class FakeNamingService {
+        private final Map<String, List<Instance>> instanceMap = new HashMap<>();
+        private final Map<String, List<EventListener>> listenerMap = new HashMap<>();
+        private int selectCount;
+
+        void push(String serviceName, List<Instance> instanceList) {
+            instanceMap.put(serviceName, instanceList);
+            for (EventListener listener : listenerMap.getOrDefault(serviceName, Collections.emptyList())) {
+                listener.onEvent(new NamingEvent(serviceName, instanceList));
+            }
+        }
+
+        NamingService proxy() {
+            return (NamingService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{NamingService.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "registerInstance":
+                        instanceMap.computeIfAbsent((String) args[0], k -> new ArrayList<>()).add((Instance) args[1]);
+                        return null;
+                    case "deregisterInstance":
+                        instanceMap.getOrDefault((String) args[0], new ArrayList<>()).remove((Instance) args[1]);
+                        return null;
+                    case "selectInstances":
+                        selectCount++;
+                        return new ArrayList<>(instanceMap.getOrDefault((String) args[0], Collections.emptyList()));
+                    case "subscribe":
+                        listenerMap.computeIfAbsent((String) args[0], k -> new ArrayList<>()).add((EventListener) args[1]);
+                        return null;
+                    case "unsubscribe":
+                        listenerMap.getOrDefault((String) args[0], new ArrayList<>()).remove((EventListener) args[1]);
+                        return null;
+                    case "shutDown":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.dts.sdk.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+public class RedisDiscoveryServiceTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static ServerInstance newServerInstance(int i) {
+        ServerInstance instance = new ServerInstance();
+        instance.setIp("127.0.0.1");
+        // 连不上的端口
+        instance.setPort(1);
+        instance.setDeviceId("device" + i);
+        instance.setAccount("account" + i);
+        instance.setPassword("password" + i);
+        return instance;
+    }
+
+    static void putServerInstance(FakeRedisConnectionFactory redis, ServerInstance instance) throws Exception {
+        redis.getStore().put("test:svr:ls:" + instance.getDeviceId(), OBJECT_MAPPER.writeValueAsBytes(instance));
+    }
+
+    static RedisDiscoveryService newDiscoveryService(FakeRedisConnectionFactory redis, DtsSdkConfig.ClusterConfig clusterConfig) {
+        clusterConfig.setTestSocketTimeoutMs(10);
+        return new RedisDiscoveryService(redis.getFactory(), "test:", 10, clusterConfig, "127.0.0.1", 8080);
+    }
+
+    @Test
+    public void scanWithMGet() throws Exception {
+        FakeRedisConnectionFactory redis = new FakeRedisConnectionFactory();
+        for (int i = 0; i < 250; i++) {
+            putServerInstance(redis, newServerInstance(i));
+        }
+        // 过期的key
+        redis.getStore().put("test:svr:ls:expired", "null".getBytes());
+        RedisDiscoveryService service = newDiscoveryService(redis, new DtsSdkConfig.ClusterConfig());
+
+        Map<String, ServerInstance> map = service.getServerInstanceMap();
+        Assertions.assertEquals(250, map.size());
+        Assertions.assertEquals("device7", map.get("account7").getDeviceId());
+        Assertions.assertEquals(0, redis.getCommandCount("get"));
+        Assertions.assertEquals(3, redis.getCommandCount("mGet"));
+        redis.close();
+    }
+
+    @Test
+    public void debounceNotify() throws Exception {
+        FakeRedisConnectionFactory redis = new FakeRedisConnectionFactory();
+        putServerInstance(redis, newServerInstance(1));
+        DtsSdkConfig.ClusterConfig clusterConfig = new DtsSdkConfig.ClusterConfig();
+        // 只测试通知触发的刷新
+        clusterConfig.getRedis().setUpdateInstanceTimerMs(0);
+        clusterConfig.getRedis().setUpdateInstanceDebounceMs(100);
+        RedisDiscoveryService service = newDiscoveryService(redis, clusterConfig);
+        try {
+            service.registerSdkInstance();
+            Assertions.assertEquals(1, service.getServerListRef().get().size());
+            redis.resetCommandCount();
+
+            // 滚动发布，短时间内大量通知，消息体为空时只能全量扫描
+            for (int i = 2; i <= 50; i++) {
+                putServerInstance(redis, newServerInstance(i));
+                redis.publish("test:svr:mq:sub", new byte[0]);
+            }
+            redis.awaitPublish();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getServerListRef().get().size() < 50 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(50, service.getServerListRef().get().size());
+            Thread.sleep(300);
+            Assertions.assertTrue(redis.getCommandCount("scan") <= 2, "scan count " + redis.getCommandCount("scan"));
+        } finally {
+            service.destroy();
+            redis.close();
+        }
+    }
+
+    @Test
+    public void incrementalNotify() throws Exception {
+        FakeRedisConnectionFactory redis = new FakeRedisConnectionFactory();
+        putServerInstance(redis, newServerInstance(1));
+        DtsSdkConfig.ClusterConfig clusterConfig = new DtsSdkConfig.ClusterConfig();
+        clusterConfig.getRedis().setUpdateInstanceTimerMs(0);
+        RedisDiscoveryService service = newDiscoveryService(redis, clusterConfig);
+        try {
+            service.registerSdkInstance();
+            redis.resetCommandCount();
+
+            // 只在消息里，不在Redis的key里，说明是按消息体更新的
+            redis.publish("test:svr:mq:sub", OBJECT_MAPPER.writeValueAsBytes(newServerInstance(2)));
+            awaitServerCount(service, 2);
+            redis.publish("test:svr:mq:unsub", OBJECT_MAPPER.writeValueAsBytes(newServerInstance(1)));
+            awaitServerCount(service, 1);
+            Assertions.assertEquals("account2", service.getServerListRef().get().get(0).getAccount());
+            // 不认识的实例
+            redis.publish("test:svr:mq:unsub", OBJECT_MAPPER.writeValueAsBytes(newServerInstance(3)));
+            redis.awaitPublish();
+            Thread.sleep(100);
+            Assertions.assertEquals(1, service.getServerListRef().get().size());
+            Assertions.assertEquals(0, redis.getCommandCount("scan"));
+
+            // 解析不了的消息退回到全量扫描
+            redis.publish("test:svr:mq:sub", new byte[0]);
+            awaitServerCount(service, 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (redis.getCommandCount("scan") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(1, redis.getCommandCount("scan"));
+        } finally {
+            service.destroy();
+            redis.close();
+        }
+    }
+
+    private static void awaitServerCount(RedisDiscoveryService service, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getServerListRef().get().size() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(count, service.getServerListRef().get().size());
+    }
+}
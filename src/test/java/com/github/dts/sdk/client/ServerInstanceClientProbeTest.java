@@ -0,0 +1,59 @@
+package com.github.dts.sdk.client;
+
+import com.github.dts.sdk.conf.DtsSdkConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ServerInstanceClientProbeTest {
+
+    private static ServerInstanceClient newClient(int port) {
+        ServerInstance instance = new ServerInstance();
+        instance.setIp("127.0.0.1");
+        instance.setPort(port);
+        return new ServerInstanceClient(ServerInstanceClient.SocketState.PROBING, new SdkInstance(), instance, new DtsSdkConfig.ClusterConfig());
+    }
+
+    @Test
+    public void probe() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<ServerInstanceClient> list = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                // 连不上的端口
+                list.add(newClient(1));
+            }
+            ServerInstanceClient reachable = newClient(serverSocket.getLocalPort());
+            list.add(reachable);
+            for (ServerInstanceClient client : list) {
+                Assertions.assertEquals(ServerInstanceClient.SocketState.PROBING, client.getSocketState());
+            }
+
+            ServerInstanceClient.probe(list, 500).get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(reachable.isSocketConnected());
+            for (ServerInstanceClient client : list.subList(0, 20)) {
+                Assertions.assertEquals(ServerInstanceClient.SocketState.UNREACHABLE, client.getSocketState());
+            }
+            // 探测线程不阻止JVM退出
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("DTS-probe-")) {
+                    Assertions.assertTrue(thread.isDaemon(), thread.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deadline() throws Exception {
+        List<ServerInstanceClient> list = new ArrayList<>();
+        list.add(newClient(1));
+        // 已经过了截止时间，保持PROBING，交给dump线程
+        ServerInstanceClient.probe(list, 0).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(ServerInstanceClient.SocketState.PROBING, list.get(0).getSocketState());
+        Assertions.assertFalse(list.get(0).isSocketConnected());
+    }
+}
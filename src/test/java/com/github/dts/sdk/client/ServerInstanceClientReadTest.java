@@ -0,0 +1,43 @@
+package com.github.dts.sdk.client;
+
+import com.github.dts.sdk.util.EsDmlDTO;
+import com.github.dts.sdk.util.JsonUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ServerInstanceClientReadTest {
+    private static final String JSON = "{\"tableName\":\"job\",\"database\":\"test\",\"pkNames\":[\"id\"],\"es\":1700000000000,\"ts\":1700000000015," +
+            "\"type\":\"INSERT\",\"data\":{\"id\":1,\"status\":\"PUBLISHED\"}}";
+
+    /**
+     * 服务端关闭连接时readLine返回null，按EOFException交给重连逻辑
+     */
+    @Test
+    public void eofOnStreamEnd() {
+        ServerInstanceClient client = new ServerInstanceClient(true, null, null, null);
+        BufferedReader reader = new BufferedReader(new StringReader("id:1\nevent:es-dml\ndata:" + JSON + "\n\n"));
+        List<Object> list = new ArrayList<>();
+        Assertions.assertThrows(EOFException.class,
+                () -> client.read(null, reader, JsonUtil.objectReader(), (messageId, data) -> list.add(data)));
+        Assertions.assertEquals(1, list.size());
+        Assertions.assertEquals("job", ((EsDmlDTO) list.get(0)).getTableName());
+    }
+
+    /**
+     * 没有jackson时用fastjson解析，parseObject是静态方法
+     */
+    @Test
+    public void fastjsonReadValue() throws Exception {
+        JsonUtil.ObjectReader objectReader = JsonUtil.fastjsonObjectReader();
+        Assertions.assertNotNull(objectReader);
+        EsDmlDTO dml = objectReader.readValue(JSON, EsDmlDTO.class);
+        Assertions.assertEquals("job", dml.getTableName());
+        Assertions.assertEquals(1, ((Number) dml.getId()).intValue());
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.dts.sdk.conf;
+
+import com.github.dts.sdk.DtsSdkClient;
+import com.github.dts.sdk.MockDiscoveryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class DtsSdkMeterBinderTest {
+
+    @Test
+    public void bind() throws Exception {
+        MockDiscoveryService discoveryService = new MockDiscoveryService(1);
+        DtsSdkClient client = MockDiscoveryService.awaitDump(new DtsSdkClient(new DtsSdkConfig(), discoveryService), 1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new DtsSdkMeterBinder(client).bindTo(registry);
+        try {
+            CompletableFuture<?> hit = client.listenEsRow("job", 1L, 5000);
+            discoveryService.getClientList().get(0).send(MockDiscoveryService.newDml("job", 1L));
+            hit.get(5, TimeUnit.SECONDS);
+            client.listenEsRow("job", 2L, 5000).cancel(false);
+            // 完成回调在dump线程执行，get返回时可能还没计数
+            long deadline = System.currentTimeMillis() + 1000;
+            while (client.getMetrics().getListenComplete() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            Assertions.assertEquals(1D, registry.get("dts.sdk.stream.events").functionCounter().count());
+            Assertions.assertEquals(1L, registry.get("dts.sdk.dispatch").functionTimer().count(), 0D);
+            Assertions.assertEquals(1D, registry.get("dts.sdk.listen").tag("outcome", "complete").functionCounter().count());
+            Assertions.assertEquals(1D, registry.get("dts.sdk.listen").tag("outcome", "cancel").functionCounter().count());
+            Assertions.assertEquals(0D, registry.get("dts.sdk.listeners").gauge().value());
+
+            // 服务发现删除服务端后注销这个流的指标
+            discoveryService.remove(discoveryService.getClientList().get(0));
+            Assertions.assertNull(registry.find("dts.sdk.stream.events").functionCounter());
+            Assertions.assertNull(registry.find("dts.sdk.stream.decode").functionTimer());
+            Assertions.assertTrue(client.getMetrics().getStreams().isEmpty());
+        } finally {
+            discoveryService.close();
+        }
+    }
+}